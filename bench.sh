@@ -0,0 +1,12 @@
+#!/bin/bash
+# SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+# SPDX-License-Identifier: CC0-1.0
+
+# Run compile.sh first. JMH and its dependencies are expected in libs/jmh, see README.md.
+# Arguments are passed to JMH, e.g. `./bench.sh JpegCompressor -rf json -rff before.json`.
+
+javac -cp bin:./libs/*:./libs/jmh/* -d bench-bin $(find bench -name '*.java') || exit 1
+
+java -Dj3d.rend=noop -Djava.awt.headless=true -Djava.library.path=yafaray \
+     -classpath bench-bin:bin:libs/jmf.jar:libs/j3dcore.jar:libs/vecmath.jar:libs/j3dutils.jar:libs/gluegen-rt.jar:libs/SweetHome3D.jar:libs/jogl-java3d.jar:libs/sunflow-0.07.3i.jar:libs/jmh/* \
+     org.openjdk.jmh.Main "$@"
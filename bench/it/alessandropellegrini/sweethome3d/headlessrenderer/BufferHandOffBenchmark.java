@@ -0,0 +1,120 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.media.Buffer;
+import javax.media.protocol.PullBufferStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing compressed frames to JMF through {@link ImageDataSource}: pulling a frame out of the
+ * {@link FramePipeline}, wrapping it in a JMF {@link Buffer} and recycling the buffer JMF gives back.
+ * Frames are compressed once beforehand and the store discards them, so that only the hand-off is
+ * measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferHandOffBenchmark {
+    @Param({ "1", "16" })
+    int depth;
+
+    private byte[] jpeg;
+    private CameraPath path;
+    private File storeRoot;
+    private FrameStore store;
+    private PrintStream console;
+    private PullBufferStream stream;
+    private final Buffer buffer = new Buffer();
+
+    @Setup
+    public void setUp() throws IOException {
+        FrameData data = new FrameData();
+        new JpegCompressor().compress(JpegCompressorBenchmark.frame(640, 480, 42), data);
+        this.jpeg = data.toByteArray();
+        this.path = new CameraPath(CameraPathBenchmark.walk(1000, 42), 1f, 25);
+        this.storeRoot = Files.createTempDirectory("handoff").toFile();
+        this.store = new FrameStore(this.storeRoot, "benchmark", true) {
+            @Override
+            public void save(int index, FrameData data) {
+            }
+        };
+
+        // The progress of every frame is printed
+        this.console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(this.console);
+        this.store.delete();
+    }
+
+    @Benchmark
+    public Buffer read() throws IOException {
+        if (this.stream == null || this.stream.endOfStream()) {
+            FramePipeline pipeline = new FramePipeline(new CompressedStage(), this.path, 0, this.path.size(),
+                    this.depth, this.store, false, null, null, Collections.emptyList());
+            this.stream = new ImageDataSource(pipeline).getStreams()[0];
+        }
+        this.stream.read(this.buffer);
+        return this.buffer;
+    }
+
+    /**
+     * A render stage whose frames are ready as soon as they are submitted.
+     */
+    private class CompressedStage implements RenderStage {
+        @Override
+        public CompletableFuture<FrameData> submit(CameraTrack track, int index, FrameData output) {
+            output.reset();
+            output.write(jpeg, 0, jpeg.length);
+            return CompletableFuture.completedFuture(output);
+        }
+
+        @Override
+        public String occupancy() {
+            return "render 0";
+        }
+
+        @Override
+        public int width() {
+            return 640;
+        }
+
+        @Override
+        public int height() {
+            return 480;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
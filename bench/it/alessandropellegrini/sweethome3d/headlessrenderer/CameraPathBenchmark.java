@@ -0,0 +1,89 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.model.Camera;
+import com.eteks.sweethome3d.model.Home;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a {@link CameraPath} out of a long list of key cameras, and interpolating its frames.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CameraPathBenchmark {
+    @Param({ "100", "10000" })
+    int keyCameras;
+
+    private Home home;
+    private CameraPath path;
+
+    @Setup
+    public void setUp() {
+        this.home = walk(this.keyCameras, 42);
+        this.path = new CameraPath(this.home, 1f, 25);
+    }
+
+    @Benchmark
+    public CameraPath construct() {
+        return new CameraPath(this.home, 1f, 25);
+    }
+
+    /**
+     * Interpolate the frames in the chunks a {@link FramePipeline} asks for.
+     */
+    @Benchmark
+    public CameraTrack trackChunk() {
+        int start = this.path.size() / 2;
+        return this.path.track(start, Math.min(start + 256, this.path.size()));
+    }
+
+    /**
+     * Build a home whose video path is a random walk of the camera through a house.
+     *
+     * @param keyCameras the number of key cameras of the path
+     * @param seed the seed of the walk, so that runs are comparable
+     * @return a home holding only the video path
+     */
+    static Home walk(int keyCameras, long seed) {
+        Random random = new Random(seed);
+        List<Camera> cameras = new ArrayList<>(keyCameras);
+        float x = 0;
+        float y = 0;
+        float yaw = 0;
+        long time = 43200000; // Noon
+        for (int i = 0; i < keyCameras; i++) {
+            cameras.add(new Camera(x, y, 170, yaw, (float) (random.nextGaussian() * 0.1),
+                    (float) Math.toRadians(63), time, Camera.Lens.PINHOLE));
+            x += 50 + random.nextFloat() * 300;
+            y += (random.nextFloat() - 0.5f) * 300;
+            yaw += (random.nextFloat() - 0.5f) * (float) Math.PI / 2;
+            time += random.nextInt(60000);
+        }
+
+        Home home = new Home();
+        home.getEnvironment().setVideoCameraPath(cameras);
+        return home;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.io.HomeFileRecorder;
+import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.RecorderException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering frames of the video path of a home at a small resolution, so that the Java side of
+ * {@link CameraRenderer#renderFrameAt(CameraTrack, int, BufferedImage)} weighs in the measure.
+ * Renders are slow, so every iteration renders a single frame, cycling through the path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CameraRendererBenchmark {
+    @Param({ "userGuideExample.sh3d" })
+    String input;
+
+    @Param({ "160x120" })
+    String size;
+
+    @Param({ "SUNFLOW", "YAFARAY" })
+    RendererBackend renderer;
+
+    @Param({ "LOW" })
+    AbstractPhotoRenderer.Quality quality;
+
+    private CameraRenderer frameRenderer;
+    private CameraTrack track;
+    private BufferedImage frame;
+    private int index = 0;
+
+    @Setup
+    public void setUp() throws RecorderException, IOException {
+        Home home = (new HomeFileRecorder()).readHome(this.input);
+        String[] dimensions = this.size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+
+        this.frameRenderer = new CameraRenderer(home, width, height, this.renderer, this.quality, null);
+        CameraPath path = new CameraPath(home, 1f, 25);
+        this.track = path.track(0, path.size());
+        this.frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Benchmark
+    public BufferedImage renderFrameAt() throws IOException {
+        // Spread the frames over the path, a pause of the camera would favor the renderer caches
+        this.index = (this.index + 7) % this.track.size();
+        return this.frameRenderer.renderFrameAt(this.track, this.index, this.frame);
+    }
+}
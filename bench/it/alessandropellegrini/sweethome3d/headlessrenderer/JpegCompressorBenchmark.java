@@ -0,0 +1,123 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compressing frames to JPEG, as the render stage does for every frame before handing it to the
+ * muxer, against the {@link ImageIO#write} call it replaced.
+ * The frames mimic rendered interiors: smooth lighting gradients, hard edges and a little noise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpegCompressorBenchmark {
+    @Param({ "640x480", "1920x1080" })
+    String size;
+
+    @Param({ "420", "444" })
+    int subsampling;
+
+    @Param({ "false", "true" })
+    boolean optimizeHuffman;
+
+    private BufferedImage frame;
+    private JpegCompressor compressor;
+    private FrameData output;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = this.size.split("x");
+        this.frame = frame(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]), 42);
+        this.compressor = new JpegCompressor(JpegCompressor.DEFAULT_QUALITY, this.subsampling, this.optimizeHuffman);
+        this.output = new FrameData();
+    }
+
+    @Benchmark
+    public FrameData compress() throws IOException {
+        this.output.reset();
+        this.compressor.compress(this.frame, this.output);
+        return this.output;
+    }
+
+    /**
+     * The baseline: a writer looked up and created for every frame, with the default settings.
+     */
+    @Benchmark
+    public FrameData imageIoWrite() throws IOException {
+        this.output.reset();
+        ImageIO.write(this.frame, "jpg", this.output);
+        return this.output;
+    }
+
+    /**
+     * Draw a frame looking like a rendered room.
+     */
+    static BufferedImage frame(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = frame.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // Walls, floor and ceiling lit from a window
+        graphics.setPaint(new GradientPaint(0, 0, new Color(236, 230, 214), width, 0, new Color(150, 140, 125)));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setPaint(new GradientPaint(0, height * 0.7f, new Color(140, 96, 60), 0, height, new Color(92, 60, 36)));
+        graphics.fillRect(0, (int) (height * 0.7), width, height);
+
+        // Furniture
+        for (int i = 0; i < 12; i++) {
+            Color color = new Color(random.nextInt(200), random.nextInt(200), random.nextInt(200));
+            int x = random.nextInt(width);
+            int y = (int) (height * (0.3 + random.nextDouble() * 0.5));
+            int w = width / 16 + random.nextInt(width / 6);
+            int h = height / 16 + random.nextInt(height / 4);
+            graphics.setPaint(new GradientPaint(x, y, color.brighter(), x + w, y + h, color.darker()));
+            if (random.nextBoolean()) {
+                graphics.fillRect(x, y, w, h);
+            } else {
+                graphics.fillOval(x, y, w, h);
+            }
+        }
+        graphics.dispose();
+
+        // Sampling noise of the renderer
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = frame.getRGB(x, y);
+                int noise = (int) (random.nextGaussian() * 3);
+                int r = Math.max(0, Math.min(255, ((rgb >> 16) & 0xFF) + noise));
+                int g = Math.max(0, Math.min(255, ((rgb >> 8) & 0xFF) + noise));
+                int b = Math.max(0, Math.min(255, (rgb & 0xFF) + noise));
+                frame.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return frame;
+    }
+}
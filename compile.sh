@@ -6,10 +6,41 @@ javac -cp .:./libs/* -d bin \
    ./src/picocli/CommandLine.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/ImageDataSource.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/CameraRenderer.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/RendererBackend.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/RenderStage.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/RenderPool.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/WorkerPool.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/WorkerCommand.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FramePipeline.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/ProgressiveRender.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FrameBufferPool.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FrameTiling.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/Rendition.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FrameScaler.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FrameData.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FrameMetrics.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FrameCostModel.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/JpegCompressor.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FrameStore.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/FrameCache.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/SceneDigest.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/HeadlessRenderer.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/jmt/HeadlessJMD.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/jmt/HeadlessPlaybackEngine.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/jmt/HeadlessMediaProcessor.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/jmt/HeadlessSourceModule.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/QuickTimeEncoder.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/NativeQuickTimeEncoder.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/ImageSequenceEncoder.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/MjpegQuickTimeWriter.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/MjpegQuickTimeReader.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/MergeCommand.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/PlanCommand.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/BatchCommand.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/DaemonCommand.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/JobOptions.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/SceneCache.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/VideoEncoder.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/Progress.java \
+   ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/CameraTrack.java \
    ./src/it/alessandropellegrini/sweethome3d/headlessrenderer/CameraPath.java
@@ -0,0 +1,189 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders the jobs of a CSV manifest in a single process.
+ * The first line of the manifest names the options of the jobs, such as
+ * {@code input,output,width,height,fps,speed,quality}; every following line is a job, and an empty cell
+ * leaves the option to its default. Any option of a render can be given as a column.
+ * Jobs run concurrently and share the homes and photo renderers they have in common, see
+ * {@link SceneCache}: jobs are grouped by input file so that a home is loaded once.
+ */
+@Command(name = "batch", mixinStandardHelpOptions = true,
+        description = "Render the jobs of a CSV manifest in this process, sharing the homes they have in common")
+public class BatchCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", description = "CSV manifest, whose header names the options of the jobs")
+    File manifest;
+
+    @Mixin
+    JobOptions options = new JobOptions();
+
+    @Override
+    public Integer call() throws InterruptedException {
+        String error = this.options.validate();
+        if (error != null) {
+            System.out.println(error);
+            return 64;
+        }
+
+        List<Job> batch;
+        try {
+            batch = this.parse(Files.readAllLines(this.manifest.toPath(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return 64;
+        }
+
+        SceneCache scenes = new SceneCache(this.options.cachedHomes);
+        ExecutorService executor = Executors.newFixedThreadPool(this.options.jobs, RenderPool.daemonThreads("job-"));
+        Instant start = Instant.now();
+        List<Future<Integer>> results = new ArrayList<>();
+        for (Job job : batch) {
+            job.renderer.scenes = scenes;
+            results.add(executor.submit(() -> {
+                System.out.println("Job " + job.line + " started: " + job.renderer.output);
+                int exitCode = job.renderer.call();
+                System.out.println("Job " + job.line + " " + (exitCode == 0 ? "done" : "failed with exit code " + exitCode)
+                        + ": " + job.renderer.output + ", " + scenes.occupancy());
+                return exitCode;
+            }));
+        }
+        executor.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (results.get(i).get() != 0) {
+                    ++failed;
+                }
+            } catch (ExecutionException e) {
+                System.err.println("Job " + batch.get(i).line + ": " + e.getCause().getMessage());
+                ++failed;
+            }
+        }
+        System.out.println("Rendered " + (batch.size() - failed) + "/" + batch.size() + " jobs in "
+                + Progress.formatDuration(Duration.between(start, Instant.now())));
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Parse and check all the jobs of the manifest before rendering any of them, so that a mistake on the
+     * last line does not surface hours later.
+     */
+    private List<Job> parse(List<String> lines) {
+        List<String> header = null;
+        List<Job> batch = new ArrayList<>();
+        for (int line = 1; line <= lines.size(); line++) {
+            String text = lines.get(line - 1).trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            List<String> cells = split(text, line);
+            if (header == null) {
+                header = cells;
+                continue;
+            }
+            if (cells.size() != header.size()) {
+                throw new IllegalArgumentException("Line " + line + ": expected " + header.size() + " cells, found "
+                        + cells.size());
+            }
+
+            List<String> arguments = new ArrayList<>();
+            for (int column = 0; column < header.size(); column++) {
+                // Flags such as keep-frames take true or false
+                String value = cells.get(column);
+                if (value.isEmpty() || value.equalsIgnoreCase("false")) {
+                    continue;
+                }
+                String option = "--" + header.get(column);
+                arguments.add(value.equalsIgnoreCase("true") ? option : option + "=" + value);
+            }
+
+            try {
+                batch.add(new Job(line, HeadlessRenderer.parse(arguments.toArray(new String[0]))));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + line + ": " + e.getMessage());
+            }
+        }
+
+        // Run the jobs of a home one after the other, so that it stays in the cache while they need it
+        Map<String, Integer> firstSeen = new HashMap<>();
+        for (Job job : batch) {
+            firstSeen.putIfAbsent(job.renderer.input.getAbsolutePath(), firstSeen.size());
+        }
+        batch.sort(Comparator.comparing(job -> firstSeen.get(job.renderer.input.getAbsolutePath())));
+        return batch;
+    }
+
+    /**
+     * Split a line of CSV, whose cells may be quoted to hold commas; quotes are doubled inside quoted cells.
+     */
+    static List<String> split(String text, int line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    ++i;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString().trim());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Line " + line + ": unterminated quote");
+        }
+        cells.add(cell.toString().trim());
+        return cells;
+    }
+
+    private static class Job {
+        final int line;
+        final HeadlessRenderer renderer;
+
+        Job(int line, HeadlessRenderer renderer) {
+            this.line = line;
+            this.renderer = renderer;
+        }
+    }
+}
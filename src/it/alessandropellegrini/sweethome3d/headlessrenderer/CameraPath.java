@@ -9,7 +9,6 @@ import com.eteks.sweethome3d.model.Camera;
 import com.eteks.sweethome3d.model.Home;
 
 import javax.vecmath.Point3f;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -18,9 +17,14 @@ import java.util.List;
  * {@link com.eteks.sweethome3d.model.Home} object passed to the constructor.
  * This sequence is then interpolated to obtain a smooth video, abiding by the fps and speed
  * specification passed to the constructor.
+ * Only the key cameras and the number of frames between them are kept in memory: the camera of
+ * each frame is interpolated on demand, either as a {@link Camera} by {@link #get(int)} or as
+ * primitive values in a {@link CameraTrack} by {@link #track(int, int)}.
  */
 public class CameraPath {
-    private final List<Camera> videoFramesPath = new ArrayList<>();
+    private final CameraTrack keyCameras;
+    private final int[] frameCounts;
+    private final int[] lastFrames;
     private final float moveDistancePerFrame;
     private final float moveAnglePerFrame;
     private final float elapsedTimePerFrame;
@@ -39,7 +43,14 @@ public class CameraPath {
         elapsedTimePerFrame = 345600.0f / fps * 25; // 250 frame/day at 25 frame/second
         this.fps = fps;
 
-        this.computeVideoFramesPath(home);
+        List<Camera> cameraPath = home.getEnvironment().getVideoCameraPath();
+        this.keyCameras = new CameraTrack(cameraPath.size());
+        for (int i = 0; i < cameraPath.size(); i++) {
+            this.keyCameras.set(i, cameraPath.get(i));
+        }
+        this.frameCounts = new int[this.keyCameras.size()];
+        this.lastFrames = new int[this.keyCameras.size()];
+        this.computeVideoFramesPath();
     }
 
     public int getFps() {
@@ -47,42 +58,108 @@ public class CameraPath {
     }
 
     public int size() {
-        return videoFramesPath.size();
+        return lastFrames[lastFrames.length - 1] + 1;
+    }
+
+    /**
+     * Return the number of segments of the path, one per key camera. Segment 0 only holds the first
+     * frame; segment i holds the frames after the last one of segment i - 1, up to key camera i.
+     */
+    public int segmentCount() {
+        return lastFrames.length;
     }
 
+    /**
+     * Return the index of the last frame of a segment, which shows its key camera.
+     *
+     * @param segment the index of the segment
+     */
+    public int lastFrame(int segment) {
+        return lastFrames[segment];
+    }
+
+    /**
+     * Return the camera of a frame, interpolated between the two key cameras surrounding it.
+     *
+     * @param index the index of the frame
+     * @return a new camera for the frame
+     */
     public Camera get(int index) {
-        return videoFramesPath.get(index);
+        return track(index, index + 1).toCamera(0);
+    }
+
+    /**
+     * Interpolate the cameras of a range of frames.
+     *
+     * @param from the index of the first frame, inclusive
+     * @param to the index of the last frame, exclusive
+     * @return the track of the cameras of the frames
+     */
+    public CameraTrack track(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("Frames [" + from + ", " + to + ") out of " + size());
+        }
+
+        CameraTrack track = new CameraTrack(to - from);
+        int segment = segmentOf(from);
+        for (int index = from; index < to; index++) {
+            while (lastFrames[segment] < index) {
+                ++segment;
+            }
+            if (segment == 0) {
+                track.set(index - from, keyCameras.getX(0), keyCameras.getY(0), keyCameras.getZ(0),
+                        keyCameras.getYaw(0), keyCameras.getPitch(0), keyCameras.getFieldOfView(0),
+                        keyCameras.getTime(0), keyCameras.getLens(0));
+            } else {
+                interpolate(segment, index - lastFrames[segment - 1], track, index - from);
+            }
+        }
+        return track;
     }
 
     /**
-     * Compute the path of the video frames. This code is taken from
+     * Find the segment holding a frame, that is the index of the key camera ending it.
+     * Segment 0 only holds the first frame.
+     */
+    private int segmentOf(int index) {
+        int low = 0;
+        int high = lastFrames.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lastFrames[middle] < index) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Count the frames between consecutive key cameras. This code is taken from
      * {@link com.eteks.sweethome3d.swing.VideoPanel#getVideoFramesPath(float, int)}
      * that is unfortunately private.
      *
-     * @param home the {@link com.eteks.sweethome3d.model.Home} to compute the path from
      * @author Emmanuel Puybaret
      */
-    private void computeVideoFramesPath(Home home) {
-        List<Camera> cameraPath = home.getEnvironment().getVideoCameraPath();
-        Camera camera = cameraPath.get(0);
-        float x = camera.getX();
-        float y = camera.getY();
-        float z = camera.getZ();
-        float yaw = camera.getYaw();
-        float pitch = camera.getPitch();
-        float fieldOfView = camera.getFieldOfView();
-        long time = camera.getTime();
-        videoFramesPath.add(camera.clone());
-
-        for (int i = 1; i < cameraPath.size(); i++) {
-            camera = cameraPath.get(i);
-            float newX = camera.getX();
-            float newY = camera.getY();
-            float newZ = camera.getZ();
-            float newYaw = camera.getYaw();
-            float newPitch = camera.getPitch();
-            float newFieldOfView = camera.getFieldOfView();
-            long newTime = camera.getTime();
+    private void computeVideoFramesPath() {
+        float x = keyCameras.getX(0);
+        float y = keyCameras.getY(0);
+        float z = keyCameras.getZ(0);
+        float yaw = keyCameras.getYaw(0);
+        float pitch = keyCameras.getPitch(0);
+        float fieldOfView = keyCameras.getFieldOfView(0);
+        long time = keyCameras.getTime(0);
+        lastFrames[0] = 0;
+
+        for (int i = 1; i < keyCameras.size(); i++) {
+            float newX = keyCameras.getX(i);
+            float newY = keyCameras.getY(i);
+            float newZ = keyCameras.getZ(i);
+            float newYaw = keyCameras.getYaw(i);
+            float newPitch = keyCameras.getPitch(i);
+            float newFieldOfView = keyCameras.getFieldOfView(i);
+            long newTime = keyCameras.getTime(i);
 
             float distance = new Point3f(x, y, z).distance(new Point3f(newX, newY, newZ));
             float moveCount = distance / moveDistancePerFrame;
@@ -94,26 +171,8 @@ public class CameraPath {
             int frameCount = (int) Math.max(moveCount, Math.max(yawAngleCount,
                     Math.max(pitchAngleCount, Math.max(fieldOfViewAngleCount, timeCount))));
 
-            float deltaX = (newX - x) / frameCount;
-            float deltaY = (newY - y) / frameCount;
-            float deltaZ = (newZ - z) / frameCount;
-            float deltaYawAngle = (newYaw - yaw) / frameCount;
-            float deltaPitchAngle = (newPitch - pitch) / frameCount;
-            float deltaFieldOfViewAngle = (newFieldOfView - fieldOfView) / frameCount;
-            long deltaTime = Math.round(((double) newTime - time) / frameCount);
-
-            for (int j = 1; j <= frameCount; j++) {
-                Camera pathCamera = camera.clone();
-                pathCamera.setX(x + deltaX * j);
-                pathCamera.setY(y + deltaY * j);
-                pathCamera.setZ(z + deltaZ * j);
-                pathCamera.setYaw(yaw + deltaYawAngle * j);
-                pathCamera.setPitch(pitch + deltaPitchAngle * j);
-                pathCamera.setFieldOfView(fieldOfView + deltaFieldOfViewAngle * j);
-                pathCamera.setTime(time + deltaTime * j);
-                pathCamera.setLens(Camera.Lens.PINHOLE);
-                videoFramesPath.add(pathCamera);
-            }
+            frameCounts[i] = frameCount;
+            lastFrames[i] = lastFrames[i - 1] + frameCount;
 
             x = newX;
             y = newY;
@@ -124,4 +183,35 @@ public class CameraPath {
             time = newTime;
         }
     }
+
+    /**
+     * Interpolate the camera of the j-th frame of a segment into a track, as
+     * {@link com.eteks.sweethome3d.swing.VideoPanel#getVideoFramesPath(float, int)} does.
+     *
+     * @author Emmanuel Puybaret
+     */
+    private void interpolate(int segment, int j, CameraTrack track, int index) {
+        int previous = segment - 1;
+        int frameCount = frameCounts[segment];
+
+        float x = keyCameras.getX(previous);
+        float y = keyCameras.getY(previous);
+        float z = keyCameras.getZ(previous);
+        float yaw = keyCameras.getYaw(previous);
+        float pitch = keyCameras.getPitch(previous);
+        float fieldOfView = keyCameras.getFieldOfView(previous);
+        long time = keyCameras.getTime(previous);
+
+        float deltaX = (keyCameras.getX(segment) - x) / frameCount;
+        float deltaY = (keyCameras.getY(segment) - y) / frameCount;
+        float deltaZ = (keyCameras.getZ(segment) - z) / frameCount;
+        float deltaYawAngle = (keyCameras.getYaw(segment) - yaw) / frameCount;
+        float deltaPitchAngle = (keyCameras.getPitch(segment) - pitch) / frameCount;
+        float deltaFieldOfViewAngle = (keyCameras.getFieldOfView(segment) - fieldOfView) / frameCount;
+        long deltaTime = Math.round(((double) keyCameras.getTime(segment) - time) / frameCount);
+
+        track.set(index, x + deltaX * j, y + deltaY * j, z + deltaZ * j,
+                yaw + deltaYawAngle * j, pitch + deltaPitchAngle * j, fieldOfView + deltaFieldOfViewAngle * j,
+                time + deltaTime * j, Camera.Lens.PINHOLE);
+    }
 }
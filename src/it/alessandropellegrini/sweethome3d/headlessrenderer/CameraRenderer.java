@@ -5,8 +5,6 @@
 package it.alessandropellegrini.sweethome3d.headlessrenderer;
 
 import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
-import com.eteks.sweethome3d.j3d.Object3DBranchFactory;
-import com.eteks.sweethome3d.j3d.YafarayRenderer;
 import com.eteks.sweethome3d.model.Camera;
 import com.eteks.sweethome3d.model.Home;
 
@@ -14,28 +12,114 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 public class CameraRenderer {
-    private final YafarayRenderer renderer;
+    private final AbstractPhotoRenderer renderer;
+    private final String description;
+    private final FrameCache cache;
     private final int width;
     private final int height;
 
     private CameraRenderer() {
         this.renderer = null;
+        this.description = null;
+        this.cache = null;
         this.width = 0;
         this.height = 0;
     }
 
-    public CameraRenderer(Home home, final int width, final int height) throws IOException {
-        this.renderer = new YafarayRenderer(home, new Object3DBranchFactory(), AbstractPhotoRenderer.Quality.HIGH);
+    /**
+     * Create a renderer.
+     *
+     * @param home the home to render
+     * @param width the width of the rendered frames
+     * @param height the height of the rendered frames
+     * @param backend the photo renderer to render frames with
+     * @param quality the quality of the rendered frames
+     * @param cache the cache of rendered frames to consult before rendering, or null
+     * @throws IOException if the renderer cannot be created
+     */
+    public CameraRenderer(Home home, final int width, final int height, RendererBackend backend,
+                          AbstractPhotoRenderer.Quality quality, FrameCache cache) throws IOException {
+        this(backend.create(home, quality), backend.describe(quality), width, height, cache);
+    }
+
+    /**
+     * Create a renderer around an existing photo renderer, such as one leased from a {@link SceneCache}.
+     *
+     * @param renderer the photo renderer, used by this renderer only
+     * @param description the description of the renderer and its quality, see {@link RendererBackend#describe}
+     * @param width the width of the rendered frames
+     * @param height the height of the rendered frames
+     * @param cache the cache of rendered frames to consult before rendering, or null
+     */
+    public CameraRenderer(AbstractPhotoRenderer renderer, String description, final int width, final int height,
+                          FrameCache cache) {
+        this.renderer = renderer;
+        this.description = description;
+        this.cache = cache;
         this.height = height;
         this.width = width;
     }
 
+    /**
+     * Render a frame of a track into an existing buffer, creating its camera only now.
+     *
+     * @param track the track of the frame cameras
+     * @param index the index of the frame in the track
+     * @param frame the buffer to render into, as large as the renderer
+     * @return the rendered frame
+     * @throws IOException if the frame cannot be rendered
+     */
+    public BufferedImage renderFrameAt(CameraTrack track, int index, BufferedImage frame) throws IOException {
+        return this.renderFrameAt(track.toCamera(index), frame);
+    }
+
     public BufferedImage renderFrameAt(Camera frameCamera) throws IOException {
-        final BufferedImage frame = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+        return this.renderFrameAt(frameCamera, new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB));
+    }
+
+    public BufferedImage renderFrameAt(Camera frameCamera, BufferedImage frame) throws IOException {
+        String key = null;
+        if (this.cache != null) {
+            key = this.cache.key(frameCamera, this.width, this.height, this.describe());
+            if (this.cache.get(key, frame) != null) {
+                return frame;
+            }
+        }
+
         this.renderer.render(frame, frameCamera, null);
+
+        if (this.cache != null) {
+            this.cache.put(key, frame);
+        }
         return frame;
     }
 
+    /**
+     * Render a tile of a frame into the buffer of the tile.
+     * Tiles are never looked up in the cache: the frames stitched from them are.
+     *
+     * @param tile the tile to render, see {@link FrameTiling#split(Camera)}
+     * @throws IOException if the tile cannot be rendered
+     */
+    public void renderTile(FrameTiling.Tile tile) throws IOException {
+        this.renderer.render(tile.getImage(), tile.getCamera(), null);
+    }
+
+    /**
+     * Release the scene exported to the photo renderer and its native resources.
+     * Photo renderers leased from a {@link SceneCache} are given back to it instead.
+     */
+    public void dispose() {
+        this.renderer.dispose();
+    }
+
+    /**
+     * Describe the renderer and its quality, for the keys of the frame cache.
+     */
+    public String describe() {
+        return this.description;
+    }
+
     public int width() {
         return this.width;
     }
@@ -0,0 +1,141 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.model.Camera;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A compact sequence of camera states, stored as parallel arrays of primitives.
+ * A {@link Camera} drags property change support, names and renderer settings along with the
+ * few numbers that actually matter to render a frame: a track only keeps these numbers and
+ * creates a {@link Camera} when one is needed with {@link #toCamera(int)}.
+ */
+public class CameraTrack {
+    private static final Camera.Lens[] LENSES = Camera.Lens.values();
+
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final float[] yaw;
+    private final float[] pitch;
+    private final float[] fieldOfView;
+    private final long[] time;
+    private final byte[] lens;
+
+    public CameraTrack(int size) {
+        this.x = new float[size];
+        this.y = new float[size];
+        this.z = new float[size];
+        this.yaw = new float[size];
+        this.pitch = new float[size];
+        this.fieldOfView = new float[size];
+        this.time = new long[size];
+        this.lens = new byte[size];
+    }
+
+    public int size() {
+        return this.time.length;
+    }
+
+    public void set(int index, float x, float y, float z, float yaw, float pitch, float fieldOfView,
+                    long time, Camera.Lens lens) {
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        this.yaw[index] = yaw;
+        this.pitch[index] = pitch;
+        this.fieldOfView[index] = fieldOfView;
+        this.time[index] = time;
+        this.lens[index] = (byte) lens.ordinal();
+    }
+
+    public void set(int index, Camera camera) {
+        this.set(index, camera.getX(), camera.getY(), camera.getZ(), camera.getYaw(), camera.getPitch(),
+                camera.getFieldOfView(), camera.getTime(), camera.getLens());
+    }
+
+    public float getX(int index) {
+        return this.x[index];
+    }
+
+    public float getY(int index) {
+        return this.y[index];
+    }
+
+    public float getZ(int index) {
+        return this.z[index];
+    }
+
+    public float getYaw(int index) {
+        return this.yaw[index];
+    }
+
+    public float getPitch(int index) {
+        return this.pitch[index];
+    }
+
+    public float getFieldOfView(int index) {
+        return this.fieldOfView[index];
+    }
+
+    public long getTime(int index) {
+        return this.time[index];
+    }
+
+    public Camera.Lens getLens(int index) {
+        return LENSES[this.lens[index]];
+    }
+
+    /**
+     * Write a state of the track, to be read back by {@link #read(int, DataInput)}.
+     *
+     * @param index the index of the state
+     * @param out the output to write to
+     * @throws IOException if the state cannot be written
+     */
+    public void write(int index, DataOutput out) throws IOException {
+        out.writeFloat(this.x[index]);
+        out.writeFloat(this.y[index]);
+        out.writeFloat(this.z[index]);
+        out.writeFloat(this.yaw[index]);
+        out.writeFloat(this.pitch[index]);
+        out.writeFloat(this.fieldOfView[index]);
+        out.writeLong(this.time[index]);
+        out.writeByte(this.lens[index]);
+    }
+
+    /**
+     * Read a state written by {@link #write(int, DataOutput)}.
+     *
+     * @param index the index of the state to set
+     * @param in the input to read from
+     * @throws IOException if the state cannot be read
+     */
+    public void read(int index, DataInput in) throws IOException {
+        this.x[index] = in.readFloat();
+        this.y[index] = in.readFloat();
+        this.z[index] = in.readFloat();
+        this.yaw[index] = in.readFloat();
+        this.pitch[index] = in.readFloat();
+        this.fieldOfView[index] = in.readFloat();
+        this.time[index] = in.readLong();
+        this.lens[index] = in.readByte();
+    }
+
+    /**
+     * Create a camera from a state of the track.
+     *
+     * @param index the index of the state
+     * @return a new camera
+     */
+    public Camera toCamera(int index) {
+        return new Camera(this.x[index], this.y[index], this.z[index], this.yaw[index], this.pitch[index],
+                this.fieldOfView[index], this.time[index], this.getLens(index));
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * A resident renderer, rendering the jobs submitted over HTTP on the loopback interface.
+ * The JVM, the native libraries, the homes and their photo renderers stay loaded from one job to the
+ * next, see {@link SceneCache}, so that short jobs do not pay for them every time.
+ * <ul>
+ * <li>{@code POST /jobs} submits a job, whose body holds the arguments of a render, one per line;</li>
+ * <li>{@code GET /jobs} lists the jobs, and {@code GET /jobs/<id>} returns the status of a job;</li>
+ * <li>{@code GET /jobs/<id>/output} downloads the video of a job once it is done or, for an image
+ * sequence, lists its files, each downloaded with {@code GET /jobs/<id>/output/<file>};</li>
+ * <li>{@code POST /shutdown} stops accepting jobs, and exits once the submitted ones are done.</li>
+ * </ul>
+ * Statuses are JSON objects. Relative paths in the arguments are resolved against the working
+ * directory of the daemon.
+ * Jobs write and delete files as the user of the daemon, so every request must carry the token the
+ * daemon generates at startup, as {@code Authorization: Bearer <token>}. The token is written to a
+ * file readable by that user only, and removed when the daemon exits.
+ */
+@Command(name = "daemon", mixinStandardHelpOptions = true,
+        description = "Stay resident and render the jobs submitted over HTTP, keeping homes and renderers loaded")
+public class DaemonCommand implements Callable<Integer> {
+
+    @Option(names = { "--port" }, description = "Local port to listen on (default: ${DEFAULT-VALUE})")
+    int port = 8642;
+
+    @Mixin
+    JobOptions options = new JobOptions();
+
+    @Option(names = { "--token-file" }, description = "File receiving the token that requests must carry, readable by this user only (default: ${DEFAULT-VALUE})")
+    File tokenFile = new File(System.getProperty("user.home"), ".headlessrenderer-daemon.token");
+
+    private final Map<Integer, Job> submitted = new ConcurrentHashMap<>();
+    private final AtomicInteger lastId = new AtomicInteger();
+    private final CountDownLatch shutdown = new CountDownLatch(1);
+    private SceneCache scenes;
+    private ExecutorService executor;
+    private byte[] token;
+
+    @Override
+    public Integer call() throws InterruptedException {
+        String error = this.options.validate();
+        if (error != null) {
+            System.out.println(error);
+            return 64;
+        }
+
+        try {
+            this.writeToken();
+        } catch (IOException e) {
+            System.err.println("Cannot write the token to " + this.tokenFile + ": " + e.getMessage());
+            return 1;
+        }
+        this.scenes = new SceneCache(this.options.cachedHomes);
+        this.executor = Executors.newFixedThreadPool(this.options.jobs, RenderPool.daemonThreads("job-"));
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port), 0);
+        } catch (IOException e) {
+            System.err.println("Cannot listen on port " + this.port + ": " + e.getMessage());
+            this.tokenFile.delete();
+            return 1;
+        }
+        server.createContext("/jobs", exchange -> this.authorized(exchange, this::handleJobs));
+        server.createContext("/shutdown", exchange -> this.authorized(exchange, this::handleShutdown));
+        server.start();
+        System.out.println("Listening on http://localhost:" + server.getAddress().getPort() + "/jobs, token in "
+                + this.tokenFile);
+
+        try {
+            this.shutdown.await();
+            server.stop(1);
+            this.executor.shutdown();
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            this.tokenFile.delete();
+        }
+        return 0;
+    }
+
+    /**
+     * Generate a random token and write it to the token file. The file is written aside first: temporary
+     * files are created readable by their owner only, so the token is never readable by other users.
+     */
+    private void writeToken() throws IOException {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder hex = new StringBuilder(2 * secret.length);
+        for (byte b : secret) {
+            hex.append(String.format("%02x", b));
+        }
+        this.token = hex.toString().getBytes(StandardCharsets.US_ASCII);
+
+        Path target = this.tokenFile.getAbsoluteFile().toPath();
+        Files.createDirectories(target.getParent());
+        Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            File file = temporary.toFile();
+            // Already the case on POSIX file systems; elsewhere, restrict the file as far as possible
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+            Files.write(temporary, this.token);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Handle a request only if it carries the token, comparing it in constant time.
+     */
+    private void authorized(HttpExchange exchange, Handler handler) throws IOException {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        byte[] presented = authorization != null && authorization.startsWith("Bearer ")
+                ? authorization.substring("Bearer ".length()).trim().getBytes(StandardCharsets.US_ASCII)
+                : new byte[0];
+        if (!MessageDigest.isEqual(presented, this.token)) {
+            try {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                respond(exchange, 401, "{\"error\":\"Missing or wrong token\"}");
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+        handler.handle(exchange);
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            String method = exchange.getRequestMethod();
+            if (path.length == 2 && method.equals("POST")) {
+                this.submit(exchange);
+            } else if (path.length == 2 && method.equals("GET")) {
+                respond(exchange, 200, this.submitted.values().stream().sorted((a, b) -> a.id - b.id)
+                        .map(Job::toJson).collect(Collectors.joining(",", "[", "]")));
+            } else if (path.length >= 3 && path.length <= 5 && method.equals("GET")) {
+                Job job = path[2].matches("\\d{1,9}") ? this.submitted.get(Integer.parseInt(path[2])) : null;
+                if (job == null) {
+                    respond(exchange, 404, "{\"error\":\"No such job\"}");
+                } else if (path.length == 3) {
+                    respond(exchange, 200, job.toJson());
+                } else if (path[3].equals("output")) {
+                    this.sendOutput(exchange, job, path.length == 5 ? path[4] : null);
+                } else {
+                    respond(exchange, 404, "{\"error\":\"Not found\"}");
+                }
+            } else {
+                respond(exchange, 405, "{\"error\":\"Unsupported request\"}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Parse and check the arguments of a job right away, so that mistakes are reported to the client,
+     * then queue it.
+     */
+    private void submit(HttpExchange exchange) throws IOException {
+        if (this.shutdown.getCount() == 0) {
+            respond(exchange, 503, "{\"error\":\"Shutting down\"}");
+            return;
+        }
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String[] arguments = Arrays.stream(body.split("\r?\n")).map(String::trim).filter(line -> !line.isEmpty())
+                .toArray(String[]::new);
+
+        HeadlessRenderer renderer;
+        try {
+            renderer = HeadlessRenderer.parse(arguments);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "{\"error\":" + json(e.getMessage()) + "}");
+            return;
+        }
+        renderer.scenes = this.scenes;
+
+        Job job = new Job(this.lastId.incrementAndGet(), arguments, renderer.output);
+        this.submitted.put(job.id, job);
+        try {
+            this.executor.execute(() -> job.run(renderer, this.scenes));
+        } catch (RejectedExecutionException e) {
+            // Shutdown was requested since the check above
+            this.submitted.remove(job.id);
+            respond(exchange, 503, "{\"error\":\"Shutting down\"}");
+            return;
+        }
+        respond(exchange, 202, job.toJson());
+    }
+
+    /**
+     * Send the video of a job or, when the job wrote an image sequence, the list of its files or one of them.
+     */
+    private void sendOutput(HttpExchange exchange, Job job, String name) throws IOException {
+        if (job.state != Job.State.DONE || job.output == null || !job.output.exists()) {
+            respond(exchange, 409, "{\"error\":\"The job has no output yet\"}");
+            return;
+        }
+
+        File file = job.output;
+        if (job.output.isDirectory()) {
+            if (name == null) {
+                String[] names = job.output.list((directory, entry) -> !entry.endsWith(".tmp"));
+                Arrays.sort(names);
+                respond(exchange, 200, Arrays.stream(names).map(DaemonCommand::json)
+                        .collect(Collectors.joining(",", "{\"files\":[", "]}")));
+                return;
+            }
+            file = new File(job.output, name);
+            if (name.equals(".") || name.equals("..") || !file.isFile()) {
+                respond(exchange, 404, "{\"error\":\"No such file\"}");
+                return;
+            }
+        } else if (name != null) {
+            respond(exchange, 404, "{\"error\":\"Not found\"}");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", contentType(file.getName()));
+        exchange.sendResponseHeaders(200, file.length());
+        try (OutputStream out = exchange.getResponseBody()) {
+            Files.copy(file.toPath(), out);
+        }
+    }
+
+    private static String contentType(String name) {
+        if (name.endsWith(".jpg")) {
+            return "image/jpeg";
+        } else if (name.endsWith(".png")) {
+            return "image/png";
+        } else if (name.endsWith(".ppm")) {
+            return "image/x-portable-pixmap";
+        }
+        return "video/quicktime";
+    }
+
+    private void handleShutdown(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "{\"error\":\"Unsupported request\"}");
+                return;
+            }
+            respond(exchange, 202, "{\"state\":\"shutting down\"}");
+            this.shutdown.countDown();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static String json(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * A render submitted to the daemon.
+     */
+    private static class Job {
+        enum State { QUEUED, RUNNING, DONE, FAILED }
+
+        final int id;
+        final String[] arguments;
+        final File output;
+        final Instant submitted = Instant.now();
+        volatile State state = State.QUEUED;
+        volatile Instant started = null;
+        volatile Instant finished = null;
+        volatile Integer exitCode = null;
+        volatile String error = null;
+
+        Job(int id, String[] arguments, File output) {
+            this.id = id;
+            this.arguments = arguments;
+            this.output = output != null ? output.getAbsoluteFile() : null;
+        }
+
+        void run(HeadlessRenderer renderer, SceneCache scenes) {
+            this.started = Instant.now();
+            this.state = State.RUNNING;
+            System.out.println("Job " + this.id + " started: " + String.join(" ", this.arguments));
+            try {
+                this.exitCode = renderer.call();
+                // Renders report their usual failures with an exit code, and keep the reason
+                this.error = renderer.error;
+            } catch (Exception e) {
+                this.error = String.valueOf(e.getMessage());
+                this.exitCode = 1;
+            }
+            this.finished = Instant.now();
+            this.state = this.exitCode == 0 ? State.DONE : State.FAILED;
+            System.out.println("Job " + this.id + " " + this.state.name().toLowerCase(Locale.ROOT) + " with exit code "
+                    + this.exitCode + ", " + scenes.occupancy());
+        }
+
+        String toJson() {
+            List<String> quoted = new ArrayList<>(this.arguments.length);
+            for (String argument : this.arguments) {
+                quoted.add(json(argument));
+            }
+            return "{\"id\":" + this.id
+                    + ",\"state\":\"" + this.state.name().toLowerCase(Locale.ROOT) + "\""
+                    + ",\"arguments\":[" + String.join(",", quoted) + "]"
+                    + ",\"output\":" + json(this.output != null ? this.output.getPath() : null)
+                    + ",\"submitted\":" + json(this.submitted.toString())
+                    + ",\"started\":" + json(this.started != null ? this.started.toString() : null)
+                    + ",\"finished\":" + json(this.finished != null ? this.finished.toString() : null)
+                    + ",\"exit_code\":" + this.exitCode
+                    + ",\"error\":" + json(this.error) + "}";
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of frame buffers, allocated once and reused for the whole video.
+ * A buffer is leased before a frame is rendered into it and released once the frame has been
+ * compressed, so the heap used by frames does not depend on the length of the video.
+ */
+public class FrameBufferPool {
+    private final BlockingQueue<BufferedImage> buffers;
+
+    /**
+     * Allocate the buffers of the pool.
+     *
+     * @param width the width of the frames
+     * @param height the height of the frames
+     * @param size the number of buffers
+     */
+    public FrameBufferPool(final int width, final int height, final int size) {
+        this.buffers = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            this.buffers.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+        }
+    }
+
+    /**
+     * Lease a buffer, waiting for one to be released if all of them are in use.
+     *
+     * @return a buffer, with the contents of the last frame it held
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public BufferedImage lease() throws InterruptedException {
+        return this.buffers.take();
+    }
+
+    public void release(BufferedImage buffer) {
+        this.buffers.add(buffer);
+    }
+
+    public int available() {
+        return this.buffers.size();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.model.Camera;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A content-addressed, size-bounded cache of rendered frames.
+ * A frame is identified by the digest of the scene (see {@link SceneDigest}), the state of the
+ * camera it is rendered from and the render settings, so re-rendering a video whose camera path
+ * changed only partially renders the changed frames only.
+ * Frames are stored losslessly as PNG files. When the cache grows beyond its capacity, the least
+ * recently used frames are evicted. The last access time of a frame is stored as the modification
+ * time of its file, so the eviction order survives across runs.
+ */
+public class FrameCache {
+    private static final String EXTENSION = ".png";
+
+    private final Path directory;
+    private final long capacity;
+    private final String sceneDigest;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usage = 0;
+
+    /**
+     * Open a frame cache.
+     *
+     * @param directory the directory holding the cached frames
+     * @param capacity the maximum size of the cache, in bytes
+     * @param sceneDigest the digest of the scene whose frames are looked up
+     * @throws IOException if the cache directory cannot be read
+     */
+    public FrameCache(File directory, long capacity, String sceneDigest) throws IOException {
+        this.directory = directory.toPath();
+        this.capacity = capacity;
+        this.sceneDigest = sceneDigest;
+
+        Files.createDirectories(this.directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(this.directory)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(EXTENSION))
+                    .sorted(Comparator.comparing(FrameCache::lastModified))
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long size = Files.size(file);
+            this.entries.put(name.substring(0, name.length() - EXTENSION.length()), size);
+            this.usage += size;
+        }
+    }
+
+    /**
+     * Look up a rendered frame.
+     *
+     * @param key the key of the frame, see {@link #key(Camera, int, int, String)}
+     * @return the cached frame, or null if the frame is not in the cache
+     */
+    public BufferedImage get(String key) {
+        synchronized (this) {
+            if (!this.entries.containsKey(key)) {
+                return null;
+            }
+            this.entries.get(key); // Refresh the access order
+        }
+
+        Path file = this.file(key);
+        try {
+            BufferedImage frame = ImageIO.read(file.toFile());
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return frame;
+        } catch (IOException e) {
+            // Evicted meanwhile, or damaged: render the frame again
+            return null;
+        }
+    }
+
+    /**
+     * Look up a rendered frame and draw it into a buffer.
+     *
+     * @param key the key of the frame, see {@link #key(Camera, int, int, String)}
+     * @param frame the buffer to draw the frame into
+     * @return the buffer, or null if the frame is not in the cache
+     */
+    public BufferedImage get(String key, BufferedImage frame) {
+        BufferedImage cached = this.get(key);
+        if (cached == null) {
+            return null;
+        }
+
+        Graphics2D graphics = frame.createGraphics();
+        graphics.drawImage(cached, 0, 0, null);
+        graphics.dispose();
+        return frame;
+    }
+
+    /**
+     * Store a rendered frame, evicting the least recently used frames if needed.
+     *
+     * @param key the key of the frame, see {@link #key(Camera, int, int, String)}
+     * @param frame the rendered frame
+     * @throws IOException if the frame cannot be stored
+     */
+    public void put(String key, BufferedImage frame) throws IOException {
+        Path temporary = Files.createTempFile(this.directory, "frame", ".tmp");
+        try {
+            ImageIO.write(frame, "PNG", temporary.toFile());
+            Files.move(temporary, this.file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        long size = Files.size(this.file(key));
+        synchronized (this) {
+            Long previous = this.entries.put(key, size);
+            this.usage += size - (previous != null ? previous : 0);
+
+            Iterator<Map.Entry<String, Long>> eldest = this.entries.entrySet().iterator();
+            while (this.usage > this.capacity && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                Files.deleteIfExists(this.file(entry.getKey()));
+                this.usage -= entry.getValue();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Compute the key of a frame.
+     *
+     * @param frameCamera the camera the frame is rendered from
+     * @param width the width of the frame
+     * @param height the height of the frame
+     * @param quality a description of the render quality
+     * @return a hexadecimal key identifying the frame
+     */
+    public String key(Camera frameCamera, int width, int height, String quality) {
+        MessageDigest digest = FrameStore.sha256();
+        digest.update(this.sceneDigest.getBytes(StandardCharsets.UTF_8));
+        digest.update((Float.floatToIntBits(frameCamera.getX()) + "," + Float.floatToIntBits(frameCamera.getY())
+                + "," + Float.floatToIntBits(frameCamera.getZ()) + "," + Float.floatToIntBits(frameCamera.getYaw())
+                + "," + Float.floatToIntBits(frameCamera.getPitch()) + "," + Float.floatToIntBits(frameCamera.getFieldOfView())
+                + "," + frameCamera.getTime() + "," + frameCamera.getLens()
+                + "," + width + "x" + height + "," + quality).getBytes(StandardCharsets.UTF_8));
+        return FrameStore.toHex(digest.digest());
+    }
+
+    private Path file(String key) {
+        return this.directory.resolve(key + EXTENSION);
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
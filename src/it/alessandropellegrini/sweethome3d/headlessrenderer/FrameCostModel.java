@@ -0,0 +1,111 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The relative cost of rendering each frame of a range of a {@link CameraPath}.
+ * Frames showing a furnished room take longer than frames of a bare corridor: a cost model sampled
+ * along the path lets {@link Progress} extrapolate the remaining time from the frames rendered so far,
+ * instead of assuming that all the frames cost the same.
+ * Costs are indexed by the offset of the frame in the range, and only matter relative to each other.
+ */
+public class FrameCostModel {
+    private final double[] costs;
+    private final double[] remaining;
+
+    private FrameCostModel(double[] costs) {
+        this.costs = costs;
+        this.remaining = new double[costs.length + 1];
+        for (int offset = costs.length - 1; offset >= 0; offset--) {
+            this.remaining[offset] = this.remaining[offset + 1] + costs[offset];
+        }
+    }
+
+    /**
+     * A model where all the frames cost the same.
+     *
+     * @param size the number of frames
+     * @return the model
+     */
+    public static FrameCostModel uniform(int size) {
+        double[] costs = new double[size];
+        Arrays.fill(costs, 1);
+        return new FrameCostModel(costs);
+    }
+
+    /**
+     * Time the rendering of frames sampled evenly along a range of a path, and interpolate the cost
+     * of the frames between them.
+     * The probe should render small frames: only the relative cost of the frames is of interest.
+     *
+     * @param probe the renderer timing the sampled frames
+     * @param path the path of the video frames
+     * @param firstFrame the index of the first frame of the range, inclusive
+     * @param endFrame the index of the last frame of the range, exclusive
+     * @param samples the number of frames to render
+     * @return the model
+     * @throws IOException if a sampled frame cannot be rendered
+     */
+    public static FrameCostModel sample(CameraRenderer probe, CameraPath path, int firstFrame, int endFrame,
+                                        int samples) throws IOException {
+        int size = endFrame - firstFrame;
+        int count = Math.max(1, Math.min(samples, size));
+        int[] offsets = new int[count];
+        double[] nanos = new double[count];
+        BufferedImage frame = new BufferedImage(probe.width(), probe.height(), BufferedImage.TYPE_INT_RGB);
+
+        // The first render also loads the scene into the renderer
+        probe.renderFrameAt(path.track(firstFrame, firstFrame + 1), 0, frame);
+
+        for (int sample = 0; sample < count; sample++) {
+            offsets[sample] = count > 1 ? (int) ((long) sample * (size - 1) / (count - 1)) : size / 2;
+            CameraTrack track = path.track(firstFrame + offsets[sample], firstFrame + offsets[sample] + 1);
+            long start = System.nanoTime();
+            probe.renderFrameAt(track, 0, frame);
+            nanos[sample] = Math.max(1, System.nanoTime() - start);
+        }
+
+        double[] costs = new double[size];
+        int sample = 0;
+        for (int offset = 0; offset < size; offset++) {
+            while (sample < count - 1 && offsets[sample + 1] <= offset) {
+                ++sample;
+            }
+            if (sample == count - 1 || offset <= offsets[sample]) {
+                costs[offset] = nanos[sample];
+            } else {
+                double weight = (double) (offset - offsets[sample]) / (offsets[sample + 1] - offsets[sample]);
+                costs[offset] = nanos[sample] + weight * (nanos[sample + 1] - nanos[sample]);
+            }
+        }
+        return new FrameCostModel(costs);
+    }
+
+    /**
+     * Return the cost of a frame.
+     *
+     * @param offset the offset of the frame in the range
+     */
+    public double cost(int offset) {
+        return this.costs[offset];
+    }
+
+    /**
+     * Return the total cost of the frames from an offset to the end of the range.
+     *
+     * @param offset the offset of the first frame, up to the number of frames
+     */
+    public double remaining(int offset) {
+        return this.remaining[offset];
+    }
+
+    public int size() {
+        return this.costs.length;
+    }
+}
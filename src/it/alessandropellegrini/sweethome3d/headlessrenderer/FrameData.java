@@ -0,0 +1,97 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A growable buffer holding the compressed data of a frame.
+ * Unlike {@link ByteArrayOutputStream#toByteArray()}, {@link #array()} exposes the backing storage
+ * without copying it: only the first {@link #length()} bytes are meaningful. Once a frame has been
+ * consumed, its buffer can be {@link #reset()} and reused for another frame, keeping its capacity.
+ * The stages producing the data also record how long they took, see {@link FrameMetrics}.
+ * Downscaled copies of the frame, for the {@link Rendition}s of the video, travel along with it.
+ */
+public class FrameData extends ByteArrayOutputStream {
+    private long renderNanos = -1;
+    private long encodeNanos = -1;
+    private final List<FrameData> renditions = new ArrayList<>(0);
+
+    public FrameData() {
+        super(256 * 1024);
+    }
+
+    /**
+     * Wrap existing data, without copying it.
+     *
+     * @param data the compressed data of a frame
+     * @return a buffer holding the data
+     */
+    public static FrameData wrap(byte[] data) {
+        FrameData frame = new FrameData();
+        frame.buf = data;
+        frame.count = data.length;
+        return frame;
+    }
+
+    /**
+     * Record how long the frame took to render and compress.
+     *
+     * @param renderNanos the rendering time in ns, or -1 if the frame was not rendered
+     * @param encodeNanos the compression time in ns, or -1 if the frame was not compressed
+     */
+    public void setTimings(long renderNanos, long encodeNanos) {
+        this.renderNanos = renderNanos;
+        this.encodeNanos = encodeNanos;
+    }
+
+    public long getRenderNanos() {
+        return this.renderNanos;
+    }
+
+    public long getEncodeNanos() {
+        return this.encodeNanos;
+    }
+
+    /**
+     * Return the buffer of a downscaled copy of the frame, creating it if needed.
+     *
+     * @param index the index of the rendition
+     * @return the buffer holding the JPEG data of the copy
+     */
+    public synchronized FrameData rendition(int index) {
+        while (this.renditions.size() <= index) {
+            this.renditions.add(new FrameData());
+        }
+        return this.renditions.get(index);
+    }
+
+    /**
+     * Replace the content of this buffer with data read from a stream, growing the buffer if needed.
+     *
+     * @param in the stream to read from
+     * @param length the number of bytes to read
+     * @throws IOException if the stream ends before all of them are read
+     */
+    public synchronized void readFully(DataInput in, int length) throws IOException {
+        if (this.buf.length < length) {
+            this.buf = new byte[length];
+        }
+        in.readFully(this.buf, 0, length);
+        this.count = length;
+    }
+
+    public synchronized byte[] array() {
+        return this.buf;
+    }
+
+    public synchronized int length() {
+        return this.count;
+    }
+}
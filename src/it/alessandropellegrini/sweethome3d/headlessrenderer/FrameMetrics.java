@@ -0,0 +1,147 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * Records how long every frame spends in each stage, as a stream of JSON lines.
+ * Each frame produces a line such as
+ * {@code {"frame":12,"source":"rendered","render_ns":812345678,"encode_ns":4567890,"wait_ns":0,"mux_ns":123456}},
+ * where a stage a frame did not go through is omitted: frames reused from the store are neither
+ * rendered nor compressed, and frames of progressive passes are muxed later.
+ * Every frame has a single line: frames of progressive passes are reported when they are rendered,
+ * and muxing them from the store later only counts in the summary.
+ * Closing the recorder appends a summary line with the 50th, 95th and 99th percentiles of each stage
+ * and the throughput, and prints it.
+ * <ul>
+ * <li>render: rendering the frame, tiles included, but not waiting for a renderer;</li>
+ * <li>encode: compressing the frame to JPEG;</li>
+ * <li>wait: the muxer waiting for the frame to come out of the pipeline;</li>
+ * <li>mux: the muxer handling the frame, until it asks for the next one.</li>
+ * </ul>
+ */
+public class FrameMetrics implements Closeable {
+    private static final String[] STAGES = { "render", "encode", "wait", "mux" };
+
+    /**
+     * Where the data of a frame comes from.
+     */
+    public enum Source {
+        RENDERED, STORED
+    }
+
+    private final PrintWriter out;
+    private final long[][] samples = new long[STAGES.length][1024];
+    private final int[] counts = new int[STAGES.length];
+    private final BitSet reported = new BitSet();
+    private final long start = System.nanoTime();
+    private int muxed = 0;
+
+    /**
+     * Create the file receiving the metrics.
+     *
+     * @param file the JSON lines file to write
+     * @throws IOException if the file cannot be created
+     */
+    public FrameMetrics(File file) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        this.out = new PrintWriter(writer);
+    }
+
+    /**
+     * Record the timings of a frame, a negative duration meaning that the frame skipped the stage.
+     *
+     * @param index the index of the frame
+     * @param source where the data of the frame comes from
+     * @param render the rendering time in ns
+     * @param encode the compression time in ns
+     * @param wait the time the muxer waited for the frame in ns
+     * @param mux the time the muxer spent on the frame in ns
+     */
+    public synchronized void record(int index, Source source, long render, long encode, long wait, long mux) {
+        long[] durations = { render, encode, wait, mux };
+        StringBuilder line = new StringBuilder(128);
+        line.append("{\"frame\":").append(index)
+                .append(",\"source\":\"").append(source.name().toLowerCase(Locale.ROOT)).append('"');
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            if (durations[stage] >= 0) {
+                line.append(",\"").append(STAGES[stage]).append("_ns\":").append(durations[stage]);
+                this.add(stage, durations[stage]);
+            }
+        }
+        // A frame stored by a progressive pass of this render has already been reported
+        if (source != Source.STORED || !this.reported.get(index)) {
+            this.out.println(line.append('}'));
+            this.reported.set(index);
+        }
+        if (mux >= 0) {
+            ++this.muxed;
+        }
+    }
+
+    private void add(int stage, long duration) {
+        if (this.counts[stage] == this.samples[stage].length) {
+            this.samples[stage] = Arrays.copyOf(this.samples[stage], 2 * this.counts[stage]);
+        }
+        this.samples[stage][this.counts[stage]++] = duration;
+    }
+
+    /**
+     * Append the summary, print it and close the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        long elapsed = System.nanoTime() - this.start;
+        double perMinute = elapsed > 0 ? this.muxed * 60e9 / elapsed : 0;
+
+        StringBuilder summary = new StringBuilder(512);
+        summary.append("{\"summary\":{\"frames\":").append(this.muxed)
+                .append(",\"elapsed_ns\":").append(elapsed)
+                .append(",\"frames_per_minute\":").append(String.format(Locale.ROOT, "%.2f", perMinute));
+        System.out.println(String.format(Locale.ROOT, "%d frames in %s, %.2f frames/min", this.muxed,
+                Progress.formatDuration(Duration.ofNanos(elapsed)), perMinute));
+
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            long[] sorted = Arrays.copyOf(this.samples[stage], this.counts[stage]);
+            Arrays.sort(sorted);
+            summary.append(",\"").append(STAGES[stage]).append("\":{\"count\":").append(sorted.length);
+            if (sorted.length > 0) {
+                summary.append(",\"p50_ns\":").append(percentile(sorted, 50))
+                        .append(",\"p95_ns\":").append(percentile(sorted, 95))
+                        .append(",\"p99_ns\":").append(percentile(sorted, 99))
+                        .append(",\"max_ns\":").append(sorted[sorted.length - 1]);
+                System.out.println(String.format(Locale.ROOT, "%-6s p50 %9.3f ms, p95 %9.3f ms, p99 %9.3f ms (%d frames)",
+                        STAGES[stage], percentile(sorted, 50) / 1e6, percentile(sorted, 95) / 1e6,
+                        percentile(sorted, 99) / 1e6, sorted.length));
+            }
+            summary.append('}');
+        }
+        this.out.println(summary.append("}}"));
+
+        this.out.close();
+        if (this.out.checkError()) {
+            throw new IOException("Cannot write the frame metrics");
+        }
+    }
+
+    /**
+     * The nearest-rank percentile of sorted durations.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
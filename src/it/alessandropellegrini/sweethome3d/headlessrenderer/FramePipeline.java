@@ -0,0 +1,244 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A staged pipeline producing the compressed frames of a {@link CameraPath}.
+ * Frames go through a {@link RenderStage}, rendering and compressing them, and finally the mux
+ * stage, which pulls them in path order through {@link #next()}.
+ * At most {@code depth} frames are in flight across the stages, so that the encoder never waits
+ * for a frame that could have been prepared while it was muxing the previous ones.
+ * Every compressed frame is persisted in a {@link FrameStore}: when resuming a job, frames
+ * already in the store skip the render stage.
+ * Frames are compressed into {@link FrameData} buffers that the mux stage gives back with
+ * {@link #release(FrameData)}.
+ * The time every frame spends in each stage can be recorded in {@link FrameMetrics}, and the
+ * relative cost of the frames predicted by a {@link FrameCostModel}.
+ * The downscaled copies of the frames, made by the render stage for the {@link Rendition}s of the
+ * video, are persisted along with them.
+ */
+public class FramePipeline {
+    private static final int TRACK_CHUNK = 256;
+
+    private final RenderStage renderers;
+    private final CameraPath path;
+    private final FrameStore store;
+    private final List<Rendition> renditions;
+    private final boolean resume;
+    private final ConcurrentLinkedQueue<FrameData> spareData = new ConcurrentLinkedQueue<>();
+    private final Deque<CompletableFuture<FrameData>> pending = new ArrayDeque<>();
+    private final Deque<FrameMetrics.Source> pendingSources = new ArrayDeque<>();
+    private final int depth;
+    private final int firstFrame;
+    private final int endFrame;
+    private int submitIndex;
+    private int nextIndex;
+    private CameraTrack track = null;
+    private int trackStart = 0;
+
+    private final AtomicInteger compressed = new AtomicInteger();
+
+    private final FrameMetrics metrics;
+    private final FrameCostModel costs;
+    private FrameMetrics.Source muxedSource = null;
+    private long muxedRender;
+    private long muxedEncode;
+    private long muxedWait;
+    private long muxedSince;
+
+    /**
+     * Create the pipeline.
+     *
+     * @param renderers the stage rendering and compressing the frames
+     * @param path the path of the video frames
+     * @param firstFrame the index of the first frame to produce, inclusive
+     * @param endFrame the index of the last frame to produce, exclusive
+     * @param depth the maximum number of frames in flight across all stages
+     * @param store the store where compressed frames are persisted
+     * @param resume whether frames already in the store should be reused
+     * @param metrics where to record the timings of the frames, or null
+     * @param costs the relative cost of the frames of the range, or null if they all cost the same
+     * @param renditions the renditions whose frames the render stage downscales, or an empty list
+     */
+    public FramePipeline(RenderStage renderers, CameraPath path, int firstFrame, int endFrame, final int depth,
+                         FrameStore store, boolean resume, FrameMetrics metrics, FrameCostModel costs,
+                         List<Rendition> renditions) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("The pipeline depth must be positive");
+        }
+        if (firstFrame < 0 || endFrame > path.size() || firstFrame >= endFrame) {
+            throw new IllegalArgumentException("Invalid frame range [" + firstFrame + ", " + endFrame + ")");
+        }
+        if (costs != null && costs.size() != endFrame - firstFrame) {
+            throw new IllegalArgumentException("The cost model does not match the frame range");
+        }
+
+        this.renderers = renderers;
+        this.path = path;
+        this.firstFrame = firstFrame;
+        this.endFrame = endFrame;
+        this.submitIndex = firstFrame;
+        this.nextIndex = firstFrame;
+        this.depth = depth;
+        this.store = store;
+        this.renditions = renditions;
+        this.resume = resume;
+        this.metrics = metrics;
+        this.costs = costs != null ? costs : FrameCostModel.uniform(endFrame - firstFrame);
+    }
+
+    /**
+     * Return the next compressed frame in path order, blocking until it is available.
+     *
+     * @return the JPEG data of the frame, to be released once consumed
+     * @throws IOException if the frame could not be rendered or compressed
+     */
+    public FrameData next() throws IOException {
+        long start = System.nanoTime();
+        this.finish();
+        try {
+            this.fill();
+
+            FrameMetrics.Source source = this.pendingSources.remove();
+            FrameData data = this.pending.remove().get();
+            this.compressed.decrementAndGet();
+            ++this.nextIndex;
+            this.fill();
+
+            if (this.metrics != null) {
+                this.muxedSource = source;
+                this.muxedRender = data.getRenderNanos();
+                this.muxedEncode = data.getEncodeNanos();
+                this.muxedSince = System.nanoTime();
+                this.muxedWait = this.muxedSince - start;
+            }
+            return data;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Frame rendering interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to produce frame " + this.nextIndex, e.getCause());
+        }
+    }
+
+    /**
+     * Record the timings of the last frame returned by {@link #next()}, whose muxing ends either when
+     * the muxer asks for the next frame or, for the last frame, when the muxer calls this method.
+     */
+    public void finish() {
+        if (this.muxedSource != null) {
+            this.metrics.record(this.nextIndex - 1, this.muxedSource, this.muxedRender, this.muxedEncode,
+                    this.muxedWait, System.nanoTime() - this.muxedSince);
+            this.muxedSource = null;
+        }
+    }
+
+    /**
+     * Give back the buffer of a frame returned by {@link #next()}, once its data has been consumed.
+     *
+     * @param data the buffer to reuse for another frame
+     */
+    public void release(FrameData data) {
+        this.spareData.add(data);
+    }
+
+    /**
+     * Keep the stages busy with the upcoming frames, up to the pipeline depth.
+     */
+    private void fill() {
+        while (this.submitIndex < this.endFrame && this.pending.size() < this.depth) {
+            final int index = this.submitIndex;
+            ++this.submitIndex;
+
+            if (this.resume && this.store.contains(index) && Rendition.contain(this.renditions, index)) {
+                this.compressed.incrementAndGet();
+                this.pendingSources.add(FrameMetrics.Source.STORED);
+                try {
+                    this.pending.add(CompletableFuture.completedFuture(this.store.load(index)));
+                } catch (IOException e) {
+                    this.pending.add(CompletableFuture.failedFuture(e));
+                }
+                continue;
+            }
+
+            if (this.track == null || index >= this.trackStart + this.track.size()) {
+                this.trackStart = index;
+                this.track = this.path.track(index, Math.min(index + TRACK_CHUNK, this.endFrame));
+            }
+
+            FrameData output = this.spareData.poll();
+            if (output == null) {
+                output = new FrameData();
+            }
+            this.pendingSources.add(FrameMetrics.Source.RENDERED);
+            this.pending.add(this.renderers.submit(this.track, index - this.trackStart, output).thenApply(data -> {
+                try {
+                    this.store.save(index, data);
+                    Rendition.save(this.renditions, index, data);
+                    return data;
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    this.compressed.incrementAndGet();
+                }
+            }));
+        }
+    }
+
+    /**
+     * Describe how many frames are waiting in each stage of the pipeline.
+     *
+     * @return a human-readable summary of the queues occupancy
+     */
+    public String occupancy() {
+        return this.renderers.occupancy() + ", mux " + this.compressed.get() + " (depth " + this.depth + ")";
+    }
+
+    /**
+     * Return the number of frames produced by the pipeline, which may be a slice of the path.
+     */
+    public int size() {
+        return this.endFrame - this.firstFrame;
+    }
+
+    /**
+     * Return the index in the path of the first frame produced by the pipeline.
+     */
+    public int firstFrame() {
+        return this.firstFrame;
+    }
+
+    /**
+     * Return the relative cost of the frames produced by the pipeline, indexed from the first one.
+     */
+    public FrameCostModel costs() {
+        return this.costs;
+    }
+
+    public int getFps() {
+        return this.path.getFps();
+    }
+
+    public int width() {
+        return this.renderers.width();
+    }
+
+    public int height() {
+        return this.renderers.height();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Resamples frames with filters of higher quality than those of {@link java.awt.Graphics2D}.
+ * Frames are downscaled with an area filter, for the {@link Rendition}s of a video, and upscaled
+ * with a Lanczos filter, for frames rendered at a fraction of the video size.
+ */
+public final class FrameScaler {
+    private static final int LANCZOS_RADIUS = 3;
+
+    private FrameScaler() {
+    }
+
+    /**
+     * Return a size of a video scaled for rendering, at least one pixel.
+     *
+     * @param size the width or the height of the video
+     * @param scale the fraction of the size to render, in (0, 1]
+     */
+    static int scale(int size, double scale) {
+        return Math.max(1, (int) Math.round(size * scale));
+    }
+
+    /**
+     * Downscale an image with an area filter: every target pixel averages the source pixels it covers,
+     * weighted by how much of them it covers, which does not alias like bilinear or bicubic sampling
+     * at large ratios. The filter is separable: rows are filtered horizontally as they are read, then
+     * accumulated into the target rows they overlap.
+     */
+    static void downscale(BufferedImage source, BufferedImage target) {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int targetWidth = target.getWidth();
+        int targetHeight = target.getHeight();
+        double scaleX = (double) sourceWidth / targetWidth;
+        double scaleY = (double) sourceHeight / targetHeight;
+
+        // The source columns covered by every target column, and how much
+        int[] firstColumns = new int[targetWidth];
+        double[][] columnWeights = new double[targetWidth][];
+        for (int x = 0; x < targetWidth; x++) {
+            double start = x * scaleX;
+            double end = start + scaleX;
+            firstColumns[x] = (int) start;
+            int last = Math.min(sourceWidth, (int) Math.ceil(end)) - 1;
+            columnWeights[x] = new double[last - firstColumns[x] + 1];
+            for (int column = firstColumns[x]; column <= last; column++) {
+                columnWeights[x][column - firstColumns[x]] = Math.min(end, column + 1) - Math.max(start, column);
+            }
+        }
+
+        int[] row = new int[sourceWidth];
+        double[] filtered = new double[3 * targetWidth];
+        double[] sum = new double[3 * targetWidth];
+        int[] pixels = new int[targetWidth];
+        int filteredRow = -1;
+        for (int y = 0; y < targetHeight; y++) {
+            double start = y * scaleY;
+            double end = start + scaleY;
+            int last = Math.min(sourceHeight, (int) Math.ceil(end)) - 1;
+            Arrays.fill(sum, 0);
+            for (int sourceRow = (int) start; sourceRow <= last; sourceRow++) {
+                if (sourceRow != filteredRow) {
+                    source.getRGB(0, sourceRow, sourceWidth, 1, row, 0, sourceWidth);
+                    filterRow(row, firstColumns, columnWeights, scaleX, filtered);
+                    filteredRow = sourceRow;
+                }
+                double weight = Math.min(end, sourceRow + 1) - Math.max(start, sourceRow);
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] += weight * filtered[i];
+                }
+            }
+            for (int x = 0; x < targetWidth; x++) {
+                int red = (int) Math.round(sum[3 * x] / scaleY);
+                int green = (int) Math.round(sum[3 * x + 1] / scaleY);
+                int blue = (int) Math.round(sum[3 * x + 2] / scaleY);
+                pixels[x] = (Math.min(255, red) << 16) | (Math.min(255, green) << 8) | Math.min(255, blue);
+            }
+            target.setRGB(0, y, targetWidth, 1, pixels, 0, targetWidth);
+        }
+    }
+
+    private static void filterRow(int[] row, int[] firstColumns, double[][] columnWeights, double scaleX,
+                                  double[] filtered) {
+        for (int x = 0; x < firstColumns.length; x++) {
+            double red = 0;
+            double green = 0;
+            double blue = 0;
+            for (int i = 0; i < columnWeights[x].length; i++) {
+                int rgb = row[firstColumns[x] + i];
+                double weight = columnWeights[x][i];
+                red += weight * ((rgb >> 16) & 0xFF);
+                green += weight * ((rgb >> 8) & 0xFF);
+                blue += weight * (rgb & 0xFF);
+            }
+            filtered[3 * x] = red / scaleX;
+            filtered[3 * x + 1] = green / scaleX;
+            filtered[3 * x + 2] = blue / scaleX;
+        }
+    }
+
+    /**
+     * Upscale an image with a separable Lanczos filter of radius 3, which keeps edges sharper than
+     * bicubic interpolation. The overshoot of the filter around edges is clamped.
+     * Rows are filtered horizontally as they are needed, and kept while the next target rows need them.
+     */
+    static void upscale(BufferedImage source, BufferedImage target) {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int targetWidth = target.getWidth();
+        int targetHeight = target.getHeight();
+
+        // The taps of every target column, flattened: they are read for every filtered row
+        int taps = 2 * LANCZOS_RADIUS;
+        int[] columns = new int[targetWidth * taps];
+        float[] columnWeights = new float[targetWidth * taps];
+        int[] samples = new int[taps];
+        double[] weights = new double[taps];
+        for (int x = 0; x < targetWidth; x++) {
+            lanczosWeights((x + 0.5) * sourceWidth / targetWidth - 0.5, sourceWidth, samples, weights);
+            for (int i = 0; i < taps; i++) {
+                columns[x * taps + i] = samples[i];
+                columnWeights[x * taps + i] = (float) weights[i];
+            }
+        }
+
+        int[] row = new int[sourceWidth];
+        float[][] reds = new float[taps][targetWidth];
+        float[][] greens = new float[taps][targetWidth];
+        float[][] blues = new float[taps][targetWidth];
+        int[] filteredRows = new int[taps];
+        Arrays.fill(filteredRows, -1);
+        int[] rows = new int[taps];
+        double[] rowWeights = new double[taps];
+        float[] sumRed = new float[targetWidth];
+        float[] sumGreen = new float[targetWidth];
+        float[] sumBlue = new float[targetWidth];
+        int[] pixels = new int[targetWidth];
+        for (int y = 0; y < targetHeight; y++) {
+            lanczosWeights((y + 0.5) * sourceHeight / targetHeight - 0.5, sourceHeight, rows, rowWeights);
+            for (int tap = 0; tap < taps; tap++) {
+                // A window holds consecutive rows, so that they never share a slot
+                int slot = rows[tap] % taps;
+                if (filteredRows[slot] != rows[tap]) {
+                    source.getRGB(0, rows[tap], sourceWidth, 1, row, 0, sourceWidth);
+                    float[] red = reds[slot];
+                    float[] green = greens[slot];
+                    float[] blue = blues[slot];
+                    for (int x = 0, i = 0; x < targetWidth; x++) {
+                        float r = 0;
+                        float g = 0;
+                        float b = 0;
+                        for (int end = i + taps; i < end; i++) {
+                            int rgb = row[columns[i]];
+                            float weight = columnWeights[i];
+                            r += weight * ((rgb >> 16) & 0xFF);
+                            g += weight * ((rgb >> 8) & 0xFF);
+                            b += weight * (rgb & 0xFF);
+                        }
+                        red[x] = r;
+                        green[x] = g;
+                        blue[x] = b;
+                    }
+                    filteredRows[slot] = rows[tap];
+                }
+            }
+
+            // Accumulate the filtered rows into the target row, one tap at a time
+            Arrays.fill(sumRed, 0);
+            Arrays.fill(sumGreen, 0);
+            Arrays.fill(sumBlue, 0);
+            for (int tap = 0; tap < taps; tap++) {
+                int slot = rows[tap] % taps;
+                float weight = (float) rowWeights[tap];
+                float[] red = reds[slot];
+                float[] green = greens[slot];
+                float[] blue = blues[slot];
+                for (int x = 0; x < targetWidth; x++) {
+                    sumRed[x] += weight * red[x];
+                    sumGreen[x] += weight * green[x];
+                    sumBlue[x] += weight * blue[x];
+                }
+            }
+            for (int x = 0; x < targetWidth; x++) {
+                pixels[x] = (clamp(sumRed[x]) << 16) | (clamp(sumGreen[x]) << 8) | clamp(sumBlue[x]);
+            }
+            target.setRGB(0, y, targetWidth, 1, pixels, 0, targetWidth);
+        }
+    }
+
+    /**
+     * Compute the source samples around a position and their normalized Lanczos weights, repeating the
+     * samples on the border for positions near it.
+     */
+    private static void lanczosWeights(double center, int size, int[] samples, double[] weights) {
+        int first = (int) Math.floor(center) - LANCZOS_RADIUS + 1;
+        double total = 0;
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = Math.max(0, Math.min(size - 1, first + i));
+            weights[i] = lanczos(center - (first + i));
+            total += weights[i];
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= total;
+        }
+    }
+
+    private static double lanczos(double x) {
+        if (x == 0) {
+            return 1;
+        }
+        if (Math.abs(x) >= LANCZOS_RADIUS) {
+            return 0;
+        }
+        double pi = Math.PI * x;
+        return LANCZOS_RADIUS * Math.sin(pi) * Math.sin(pi / LANCZOS_RADIUS) / (pi * pi);
+    }
+
+    private static int clamp(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
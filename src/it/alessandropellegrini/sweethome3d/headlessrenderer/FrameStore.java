@@ -0,0 +1,138 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk store of the compressed frames of a render job.
+ * Frames are kept in a sub-directory named after the job fingerprint, so that frames rendered
+ * with a different input file or different video settings are never mixed up.
+ * Every frame is written atomically: a frame found in the store is always complete.
+ */
+public class FrameStore {
+    private final Path directory;
+    private final boolean removeRoot;
+
+    /**
+     * Open the store of a job.
+     *
+     * @param root the root directory of the store
+     * @param fingerprint the fingerprint of the job, see {@link #fingerprint(File, int, int, int, float, String)}
+     * @param removeRoot whether {@link #delete()} also removes the root once it is empty, which only
+     *                   suits a root chosen by this tool rather than by the user
+     * @throws IOException if the store directory cannot be created
+     */
+    public FrameStore(File root, String fingerprint, boolean removeRoot) throws IOException {
+        this.directory = root.toPath().resolve(fingerprint);
+        this.removeRoot = removeRoot;
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Compute the fingerprint of a render job.
+     *
+     * @param input the SH3D file to render
+     * @param width the width of the video
+     * @param height the height of the video
+     * @param fps the number of frames per second
+     * @param speed the speed of the camera in m/s
+     * @param encoding a description of how frames are compressed
+     * @return a hexadecimal digest identifying the job
+     * @throws IOException if the input file cannot be read
+     */
+    public static String fingerprint(File input, int width, int height, int fps, float speed, String encoding)
+            throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(input.toPath())) {
+            update(digest, in);
+        }
+        digest.update((width + "x" + height + "@" + fps + ":" + speed + "/" + encoding).getBytes(StandardCharsets.UTF_8));
+        return toHex(digest.digest()).substring(0, 32);
+    }
+
+    public boolean contains(int index) {
+        return Files.isRegularFile(this.frameFile(index));
+    }
+
+    public FrameData load(int index) throws IOException {
+        return FrameData.wrap(Files.readAllBytes(this.frameFile(index)));
+    }
+
+    public void save(int index, FrameData data) throws IOException {
+        Path target = this.frameFile(index);
+        Path temporary = Files.createTempFile(this.directory, "frame", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                data.writeTo(out);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Remove all the frames of the job, once they are no longer needed.
+     * The root is removed as well if allowed and empty.
+     *
+     * @throws IOException if the frames cannot be removed
+     */
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+
+        if (!this.removeRoot) {
+            return;
+        }
+        // Drop the root as well, unless it holds the frames of other jobs
+        try (Stream<Path> others = Files.list(this.directory.getParent())) {
+            if (others.findAny().isEmpty()) {
+                Files.delete(this.directory.getParent());
+            }
+        }
+    }
+
+    private Path frameFile(int index) {
+        return this.directory.resolve(String.format("%06d.jpg", index));
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static void update(MessageDigest digest, InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
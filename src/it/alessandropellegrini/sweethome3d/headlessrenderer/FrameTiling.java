@@ -0,0 +1,243 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.model.Camera;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a frame into a grid of tiles that can be rendered independently, then stitches them back.
+ * A {@link Camera} has no lens shift, so an off-center region of the frame cannot be rendered by
+ * simply narrowing the field of view. Every tile is instead rendered by a pinhole camera aimed at the
+ * center of its region, with the same pixel density as the frame and a field of view wide enough to
+ * cover the region. The tile is then reprojected onto the image plane of the frame camera.
+ * Tiled frames are therefore not identical to untiled ones: every pixel of the frame is interpolated
+ * bilinearly between four pixels of a tile, which softens the frame slightly, and anti-aliasing
+ * samples the scene along other rays.
+ * The reprojection also assumes that the field of view of a camera is horizontal, as in the 3D view
+ * of Sweet Home 3D; a renderer taking it as vertical would misplace the tiles.
+ * Only pinhole cameras can be tiled.
+ */
+public class FrameTiling {
+    private static final int MARGIN = 2; // pixels around each region, for interpolation
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * Define how frames are split.
+     *
+     * @param width the width of the frames
+     * @param height the height of the frames
+     * @param columns the number of tiles across a frame
+     * @param rows the number of tiles down a frame
+     */
+    public FrameTiling(final int width, final int height, final int columns, final int rows) {
+        if (columns < 1 || rows < 1 || columns > width || rows > height) {
+            throw new IllegalArgumentException("Cannot split a " + width + "x" + height + " frame into "
+                    + columns + "x" + rows + " tiles");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public static boolean supports(Camera frameCamera) {
+        return frameCamera.getLens() == Camera.Lens.PINHOLE;
+    }
+
+    public int size() {
+        return this.columns * this.rows;
+    }
+
+    public String describe() {
+        return this.columns + "x" + this.rows;
+    }
+
+    /**
+     * Compute the tiles of a frame.
+     *
+     * @param frameCamera the camera of the frame, see {@link #supports(Camera)}
+     * @return the tiles, each with the camera and the buffer to render it with
+     */
+    public List<Tile> split(Camera frameCamera) {
+        double focal = this.focal(frameCamera);
+        double[] frameRotation = rotation(frameCamera.getYaw(), frameCamera.getPitch());
+
+        List<Tile> tiles = new ArrayList<>(this.size());
+        for (int row = 0; row < this.rows; row++) {
+            for (int column = 0; column < this.columns; column++) {
+                int left = this.width * column / this.columns;
+                int top = this.height * row / this.rows;
+                int right = this.width * (column + 1) / this.columns;
+                int bottom = this.height * (row + 1) / this.rows;
+
+                // Aim the tile camera at the center of the region
+                double[] center = multiply(frameRotation,
+                        this.ray((left + right) / 2.0, (top + bottom) / 2.0, focal));
+                double norm = Math.sqrt(center[0] * center[0] + center[1] * center[1] + center[2] * center[2]);
+                double pitch = Math.asin(-center[1] / norm);
+                double yaw = Math.atan2(-center[0], center[2]);
+                double[] toTile = multiply(transpose(rotation(yaw, pitch)), frameRotation);
+
+                // Widen its field of view until the region fits, the tile being centered on the camera axis
+                double halfWidth = 0;
+                double halfHeight = 0;
+                for (int x : new int[] { left, right }) {
+                    for (int y : new int[] { top, bottom }) {
+                        double[] corner = multiply(toTile, this.ray(x, y, focal));
+                        halfWidth = Math.max(halfWidth, Math.abs(corner[0] / -corner[2]) * focal);
+                        halfHeight = Math.max(halfHeight, Math.abs(corner[1] / -corner[2]) * focal);
+                    }
+                }
+                int tileWidth = 2 * ((int) Math.ceil(halfWidth) + MARGIN);
+                int tileHeight = 2 * ((int) Math.ceil(halfHeight) + MARGIN);
+                float fieldOfView = (float) (2 * Math.atan(tileWidth / 2.0 / focal));
+
+                Camera tileCamera = new Camera(frameCamera.getX(), frameCamera.getY(), frameCamera.getZ(),
+                        (float) yaw, (float) pitch, fieldOfView, frameCamera.getTime(), Camera.Lens.PINHOLE);
+                tiles.add(new Tile(left, top, right - left, bottom - top, tileCamera,
+                        new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB), toTile, focal));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Reproject a rendered tile onto its region of the frame.
+     *
+     * @param tile a tile returned by {@link #split(Camera)}, once rendered
+     * @param frame the frame to draw into
+     */
+    public void stitch(Tile tile, BufferedImage frame) {
+        BufferedImage image = tile.image;
+        int tileWidth = image.getWidth();
+        int tileHeight = image.getHeight();
+        int[] source = image.getRGB(0, 0, tileWidth, tileHeight, null, 0, tileWidth);
+        int[] row = new int[tile.width];
+
+        for (int y = tile.top; y < tile.top + tile.height; y++) {
+            for (int x = tile.left; x < tile.left + tile.width; x++) {
+                double[] ray = multiply(tile.toTile, this.ray(x + 0.5, y + 0.5, tile.focal));
+                double u = tileWidth / 2.0 + tile.focal * ray[0] / -ray[2] - 0.5;
+                double v = tileHeight / 2.0 - tile.focal * ray[1] / -ray[2] - 0.5;
+                row[x - tile.left] = sample(source, tileWidth, tileHeight, u, v);
+            }
+            frame.setRGB(tile.left, y, tile.width, 1, row, 0, tile.width);
+        }
+    }
+
+    /**
+     * The focal length in pixels, the field of view of a camera being horizontal.
+     */
+    private double focal(Camera frameCamera) {
+        return this.width / 2.0 / Math.tan(frameCamera.getFieldOfView() / 2.0);
+    }
+
+    /**
+     * The direction through a point of the frame, in camera space: x right, y up, looking down -z.
+     */
+    private double[] ray(double x, double y, double focal) {
+        return new double[] { x - this.width / 2.0, this.height / 2.0 - y, -focal };
+    }
+
+    /**
+     * The rotation from the space of a camera to the scene space, as a row-major 3x3 matrix.
+     * Cameras turn around the vertical axis by PI - yaw, then around their horizontal axis by -pitch.
+     */
+    private static double[] rotation(double yaw, double pitch) {
+        double sinYaw = Math.sin(Math.PI - yaw);
+        double cosYaw = Math.cos(Math.PI - yaw);
+        double sinPitch = Math.sin(-pitch);
+        double cosPitch = Math.cos(-pitch);
+        return new double[] {
+                cosYaw, sinYaw * sinPitch, sinYaw * cosPitch,
+                0, cosPitch, -sinPitch,
+                -sinYaw, cosYaw * sinPitch, cosYaw * cosPitch };
+    }
+
+    private static double[] transpose(double[] m) {
+        return new double[] { m[0], m[3], m[6], m[1], m[4], m[7], m[2], m[5], m[8] };
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        if (b.length == 3) {
+            return new double[] {
+                    a[0] * b[0] + a[1] * b[1] + a[2] * b[2],
+                    a[3] * b[0] + a[4] * b[1] + a[5] * b[2],
+                    a[6] * b[0] + a[7] * b[1] + a[8] * b[2] };
+        }
+
+        double[] product = new double[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                product[3 * i + j] = a[3 * i] * b[j] + a[3 * i + 1] * b[3 + j] + a[3 * i + 2] * b[6 + j];
+            }
+        }
+        return product;
+    }
+
+    private static int sample(int[] pixels, int width, int height, double u, double v) {
+        u = Math.max(0, Math.min(width - 1, u));
+        v = Math.max(0, Math.min(height - 1, v));
+        int x0 = Math.min((int) u, width - 2);
+        int y0 = Math.min((int) v, height - 2);
+        double fx = u - x0;
+        double fy = v - y0;
+
+        int p00 = pixels[y0 * width + x0];
+        int p10 = pixels[y0 * width + x0 + 1];
+        int p01 = pixels[(y0 + 1) * width + x0];
+        int p11 = pixels[(y0 + 1) * width + x0 + 1];
+        int rgb = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            double top = ((p00 >> shift) & 0xFF) * (1 - fx) + ((p10 >> shift) & 0xFF) * fx;
+            double bottom = ((p01 >> shift) & 0xFF) * (1 - fx) + ((p11 >> shift) & 0xFF) * fx;
+            rgb |= (int) Math.round(top * (1 - fy) + bottom * fy) << shift;
+        }
+        return rgb;
+    }
+
+    /**
+     * A region of a frame, with the camera and buffer it is rendered with.
+     */
+    public static class Tile {
+        private final int left;
+        private final int top;
+        private final int width;
+        private final int height;
+        private final Camera camera;
+        private final BufferedImage image;
+        private final double[] toTile;
+        private final double focal;
+
+        private Tile(int left, int top, int width, int height, Camera camera, BufferedImage image,
+                     double[] toTile, double focal) {
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+            this.camera = camera;
+            this.image = image;
+            this.toTile = toTile;
+            this.focal = focal;
+        }
+
+        public Camera getCamera() {
+            return this.camera;
+        }
+
+        public BufferedImage getImage() {
+            return this.image;
+        }
+    }
+}
@@ -13,12 +13,18 @@ import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
-import javax.media.IncompatibleSourceException;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sweet Home 3D headless video generator.
@@ -26,7 +32,9 @@ import java.util.concurrent.Callable;
  * @author Alessandro Pellegrini
  */
 @Command(name = "headlessrenderer", mixinStandardHelpOptions = true, version = "headlessrenderer 1.0",
-        description = "Headless Video Renderer of SH3D files")
+        description = "Headless Video Renderer of SH3D files",
+        subcommands = { MergeCommand.class, PlanCommand.class, BatchCommand.class, DaemonCommand.class,
+                WorkerCommand.class })
 public class HeadlessRenderer implements Callable<Integer> {
 
     @Option(names = { "-w", "--width" }, description = "Redering width")
@@ -47,35 +55,386 @@ public class HeadlessRenderer implements Callable<Integer> {
     @Option(names = { "-o", "--output" }, description = "output file to create")
     File output;
 
+    @Option(names = { "--renderer" }, description = "Photo renderer, either yafaray or sunflow (default: ${DEFAULT-VALUE})")
+    RendererBackend renderer = RendererBackend.YAFARAY;
+
+    @Option(names = { "--quality" }, description = "Render quality, either low or high (default: ${DEFAULT-VALUE})")
+    AbstractPhotoRenderer.Quality quality = AbstractPhotoRenderer.Quality.HIGH;
+
+    @Option(names = { "--render-scale" }, description = "Render frames at this fraction of the width and height, then upscale them with a Lanczos filter, e.g. 0.5 for drafts (default: ${DEFAULT-VALUE})")
+    double renderScale = 1;
+
+    @Option(names = { "--parallel-frames" }, description = "Number of frames rendered concurrently (default: ${DEFAULT-VALUE})")
+    int parallelFrames = 1;
+
+    @Option(names = { "--workers" }, description = "Number of worker processes rendering frames, instead of rendering in this process (default: ${DEFAULT-VALUE})")
+    int workers = 0;
+
+    @Option(names = { "--worker-timeout" }, description = "Seconds a worker may take to render a frame before it is deemed hung and restarted, 0 for no limit (default: ${DEFAULT-VALUE})")
+    int workerTimeout = 3600;
+
+    @Option(names = { "--tiles" }, description = "Split every frame into a grid of tiles rendered concurrently, given as columns x rows (e.g. 4x2); tiled frames are slightly softer")
+    String tiles = null;
+
+    @Option(names = { "--pipeline-depth" }, description = "Maximum number of frames in flight between rendering and muxing (default: twice the parallel frames or workers)")
+    Integer pipelineDepth = null;
+
+    @Option(names = { "--frame-store" }, description = "Directory where compressed frames are persisted (default: <output>.frames)")
+    File frameStore = null;
+
+    @Option(names = { "--resume" }, description = "Reuse the frames already persisted by an interrupted render")
+    boolean resume = false;
+
+    @Option(names = { "--keep-frames" }, description = "Keep the persisted frames once the video is complete")
+    boolean keepFrames = false;
+
+    @Option(names = { "--frame-cache" }, description = "Directory of the cache of rendered frames, shared across renders")
+    File frameCache = null;
+
+    @Option(names = { "--frame-cache-size" }, description = "Maximum size of the frame cache in MB (default: ${DEFAULT-VALUE})")
+    long frameCacheSize = 4096;
+
+    @Option(names = { "--jpeg-quality" }, description = "JPEG quality of the frames, from 1 to 100 (default: ${DEFAULT-VALUE})")
+    int jpegQuality = JpegCompressor.DEFAULT_QUALITY;
+
+    @Option(names = { "--jpeg-subsampling" }, description = "JPEG chroma subsampling, either 420 or 444 (default: ${DEFAULT-VALUE})")
+    int jpegSubsampling = JpegCompressor.SUBSAMPLING_420;
+
+    @Option(names = { "--optimize-huffman" }, description = "Compute optimal JPEG Huffman tables for each frame")
+    boolean optimizeHuffman = false;
+
+    @Option(names = { "--muxer" }, description = "QuickTime muxer, either native or jmf (default: ${DEFAULT-VALUE})")
+    VideoEncoder.Muxer muxer = VideoEncoder.Muxer.JMF;
+
+    @Option(names = { "--image-sequence" }, description = "Write the frames as numbered files in the output directory instead of a QuickTime file, either jpeg, png or ppm")
+    ImageSequenceEncoder.Format imageSequence = null;
+
+    @Option(names = { "--sequence-writers" }, description = "Number of threads writing the files of an image sequence (default: ${DEFAULT-VALUE})")
+    int sequenceWriters = 4;
+
+    @Option(names = { "--progressive" }, description = "Render every n-th frame first, then every n/2-th and so on, writing a preview video after each pass (n a power of two, e.g. 16)")
+    Integer progressive = null;
+
+    @Option(names = { "--metrics" }, description = "JSON lines file receiving the time spent by every frame in each stage, followed by a summary")
+    File metricsFile = null;
+
+    @Option(names = { "--eta-samples" }, description = "Render this many frames along the path at low resolution first, to predict which parts of the video take longer and refine the ETA (default: ${DEFAULT-VALUE})")
+    int etaSamples = 0;
+
+    @Option(names = { "--scaled-output" }, description = "Also create a smaller video from the same frames, downscaled instead of rendered again, given as WIDTHxHEIGHT=file (repeatable)")
+    List<String> scaledOutputs = new ArrayList<>();
+
+    @Option(names = { "--frame-start" }, description = "Index of the first frame to render (default: 0)")
+    Integer frameStart = null;
+
+    @Option(names = { "--frame-end" }, description = "Index of the frame to stop rendering at, excluded (default: the number of frames)")
+    Integer frameEnd = null;
+
+    @Option(names = { "--shard" }, description = "Render only the k-th of n equal slices of the video, given as k/n")
+    String shard = null;
+
+    /** The homes and renderers kept loaded across the jobs of a long-running process, or null. */
+    SceneCache scenes = null;
+
+    /** Why the last call failed, for the jobs of a long-running process to report it, or null. */
+    volatile String error = null;
+
     @Override
     public Integer call() throws Exception {
-        int ret = 64; // EX_USAGE
+        String error = this.validate();
+        if (error != null) {
+            System.out.println(error);
+            this.error = error;
+            return 64; // EX_USAGE
+        }
+        return render();
+    }
 
-        if(this.width != null && this.height != null && this.fps != null && this.speed != null && this.input != null && this.output != null)
-            ret = render();
-        else
-            System.out.println("Missing arguments: use -h to see the help");
+    /**
+     * Check the options of a render, without reading any file, so that batches and daemons can reject
+     * a job when it is submitted rather than when it starts.
+     *
+     * @return the reason why the options cannot be rendered, or null if they can
+     */
+    String validate() {
+        if(this.parallelFrames < 1)
+            return "The number of parallel frames must be positive";
+        else if(this.workers < 0)
+            return "The number of workers cannot be negative";
+        else if(this.workerTimeout < 0)
+            return "The worker timeout cannot be negative";
+        else if(!(this.renderScale > 0 && this.renderScale <= 1))
+            return "The render scale must be greater than 0 and at most 1";
+        else if(this.sequenceWriters < 1)
+            return "The number of sequence writers must be positive";
+        else if(this.etaSamples < 0)
+            return "The number of ETA samples cannot be negative";
+        else if(this.pipelineDepth != null && this.pipelineDepth < 1)
+            return "The pipeline depth must be positive";
+        else if(this.tiles != null && !this.tiles.matches("[1-9]\\d{0,8}x[1-9]\\d{0,8}"))
+            return "The tiles must be given as columns x rows, e.g. 4x2";
+        else if(this.tiles != null && this.workers > 0)
+            return "Tiles are rendered in this process and cannot be combined with workers";
+        else if(!this.scaledOutputs.stream().allMatch(scaled -> scaled.matches("[1-9]\\d{0,8}x[1-9]\\d{0,8}=.+")))
+            return "The scaled outputs must be given as WIDTHxHEIGHT=file, e.g. 1280x720=video-720.mov";
+        else if(!this.scaledOutputs.isEmpty() && this.workers > 0)
+            return "Scaled outputs are downscaled in this process and cannot be combined with workers";
+        else if(this.progressive != null && (this.progressive < 2 || Integer.bitCount(this.progressive) != 1))
+            return "The progressive stride must be a power of two, at least 2";
+        else if(this.shard != null && !this.shard.matches("\\d{1,9}/\\d{1,9}"))
+            return "The shard must be given as k/n";
+        else if(this.shard != null && (this.frameStart != null || this.frameEnd != null))
+            return "A shard cannot be combined with a frame range";
+        else if(this.jpegQuality < 1 || this.jpegQuality > 100)
+            return "The JPEG quality must be between 1 and 100";
+        else if(this.jpegSubsampling != JpegCompressor.SUBSAMPLING_420 && this.jpegSubsampling != JpegCompressor.SUBSAMPLING_444)
+            return "The JPEG chroma subsampling must be either 420 or 444";
+        else if(this.width == null || this.height == null || this.fps == null || this.speed == null || this.input == null || this.output == null)
+            return "Missing arguments: the width, height, fps, speed, input and output are required";
+        return null;
+    }
 
-        return ret;
+    /**
+     * Parse and check the arguments of a render run as a job of a long-running process.
+     *
+     * @param arguments the arguments of the render
+     * @return the render, ready to be called
+     * @throws IllegalArgumentException if the arguments are not those of a valid render
+     */
+    static HeadlessRenderer parse(String... arguments) {
+        HeadlessRenderer renderer = new HeadlessRenderer();
+        try {
+            CommandLine.ParseResult parsed = commandLine(renderer).parseArgs(arguments);
+            if (parsed.hasSubcommand() || parsed.isUsageHelpRequested() || parsed.isVersionHelpRequested()) {
+                throw new IllegalArgumentException("Only renders can be run as jobs");
+            }
+        } catch (CommandLine.ParameterException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        String error = renderer.validate();
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        return renderer;
+    }
+
+    private static CommandLine commandLine(HeadlessRenderer renderer) {
+        return new CommandLine(renderer).setCaseInsensitiveEnumValuesAllowed(true);
     }
 
     private int render() {
         try {
-            Home home = (new HomeFileRecorder()).readHome(String.valueOf(input));
+            Home home = scenes != null ? scenes.home(input) : (new HomeFileRecorder()).readHome(String.valueOf(input));
             CameraPath path = new CameraPath(home, speed, fps);
-            CameraRenderer renderer = new CameraRenderer(home, width, height);
-            QuickTimeEncoder encoder = new QuickTimeEncoder(output, renderer, path);
-            encoder.start();
-        } catch (RecorderException | IOException | IncompatibleSourceException e) {
-            System.err.println(e.getMessage());
-            return 1;
+
+            int first = frameStart != null ? frameStart : 0;
+            int end = frameEnd != null ? Math.min(frameEnd, path.size()) : path.size();
+            if (shard != null) {
+                String[] slice = shard.split("/");
+                int k = Integer.parseInt(slice[0]);
+                int n = Integer.parseInt(slice[1]);
+                if (k < 1 || k > n) {
+                    return fail("Invalid shard " + shard + ": k must be between 1 and n");
+                }
+                first = (int) ((long) path.size() * (k - 1) / n);
+                end = (int) ((long) path.size() * k / n);
+            }
+            if (first < 0 || first >= end) {
+                return fail("Empty frame range [" + first + ", " + end + ") out of " + path.size() + " frames");
+            }
+            int renderWidth = FrameScaler.scale(width, renderScale);
+            int renderHeight = FrameScaler.scale(height, renderScale);
+            FrameTiling tiling = null;
+            if (tiles != null) {
+                String[] grid = tiles.split("x");
+                int columns = Integer.parseInt(grid[0]);
+                int rows = Integer.parseInt(grid[1]);
+                if (columns > renderWidth || rows > renderHeight) {
+                    return fail("Invalid tiles " + tiles + ": a tile must be at least one pixel wide and high");
+                }
+                tiling = new FrameTiling(renderWidth, renderHeight, columns, rows);
+            }
+            int concurrency = workers > 0 ? workers : parallelFrames;
+            int depth = pipelineDepth != null ? pipelineDepth : 2 * concurrency;
+            JpegCompressor compressor = new JpegCompressor(jpegQuality, jpegSubsampling, optimizeHuffman);
+            File storeRoot = frameStore != null ? frameStore : new File(output.getPath() + ".frames");
+            String encoding = renderer.describe(quality) + "/" + compressor.describe()
+                    + (renderScale != 1 ? "/scale" + renderScale : "");
+            FrameStore store = new FrameStore(storeRoot,
+                    FrameStore.fingerprint(input, width, height, fps, speed, encoding), frameStore == null);
+            List<Rendition> renditions = new ArrayList<>();
+            for (String scaled : scaledOutputs) {
+                String[] target = scaled.split("=", 2);
+                String[] size = target[0].split("x");
+                int scaledWidth = Integer.parseInt(size[0]);
+                int scaledHeight = Integer.parseInt(size[1]);
+                if (scaledWidth > width || scaledHeight > height) {
+                    return fail("Invalid scaled output " + scaled + ": it cannot be larger than " + width + "x" + height);
+                }
+                renditions.add(new Rendition(new File(target[1]), scaledWidth, scaledHeight, new FrameStore(storeRoot,
+                        FrameStore.fingerprint(input, scaledWidth, scaledHeight, fps, speed,
+                                encoding + "/from-" + width + "x" + height), frameStore == null)));
+            }
+            FrameCache cache = null;
+            if (frameCache != null) {
+                cache = new FrameCache(frameCache, frameCacheSize * 1024 * 1024, SceneDigest.of(input));
+            }
+            FrameCostModel costs = null;
+            if (etaSamples > 0) {
+                costs = sampleCosts(home, path, first, end);
+            }
+            File preview = progressive != null ? previewFile(output) : null;
+            boolean previewed = false;
+            FrameMetrics metrics = metricsFile != null ? new FrameMetrics(metricsFile) : null;
+            RenderStage stage;
+            List<AbstractPhotoRenderer> leased = null;
+            boolean rendered = false;
+            try {
+                if (workers > 0) {
+                    int timeout = (int) Math.min(Integer.MAX_VALUE, TimeUnit.SECONDS.toMillis(workerTimeout));
+                    stage = new WorkerPool(workers, width, height, timeout, WorkerCommand.arguments(input, width,
+                            height, renderScale, renderer, quality, frameCache, frameCacheSize, jpegQuality,
+                            jpegSubsampling, optimizeHuffman));
+                } else {
+                    List<CameraRenderer> pool = new ArrayList<>(parallelFrames);
+                    if (scenes != null) {
+                        leased = scenes.lease(home, renderer, quality, parallelFrames);
+                        for (AbstractPhotoRenderer photoRenderer : leased) {
+                            pool.add(new CameraRenderer(photoRenderer, renderer.describe(quality), renderWidth,
+                                    renderHeight, cache));
+                        }
+                    } else {
+                        for (int i = 0; i < parallelFrames; i++) {
+                            pool.add(new CameraRenderer(home, renderWidth, renderHeight, renderer, quality, cache));
+                        }
+                    }
+                    stage = new RenderPool(pool, width, height, depth, cache, compressor, tiling, renditions,
+                            leased == null);
+                }
+                try (RenderStage renderers = stage) {
+                    if (progressive != null) {
+                        previewed = new ProgressiveRender(renderers, path, first, end, depth, store, resume, metrics,
+                                renditions).run(progressive, preview);
+                    }
+                    FramePipeline pipeline = new FramePipeline(renderers, path, first, end, depth, store,
+                            resume || progressive != null, metrics, costs, renditions);
+                    encoder(output, pipeline).start();
+                    pipeline.finish();
+
+                    for (Rendition rendition : renditions) {
+                        encoder(rendition.getOutput(), new FramePipeline(rendition.storedFrames(), path, first, end,
+                                depth, rendition.getStore(), true, null, null, Collections.emptyList())).start();
+                    }
+                }
+                rendered = true;
+            } finally {
+                try {
+                    if (metrics != null) {
+                        metrics.close();
+                    }
+                } finally {
+                    if (leased != null) {
+                        releaseOrDispose(home, leased, rendered);
+                    }
+                }
+            }
+            if (previewed) {
+                // Only the preview written by this render, never a file the user had under that name
+                Files.deleteIfExists(preview.toPath());
+            }
+            if (!keepFrames) {
+                store.delete();
+                for (Rendition rendition : renditions) {
+                    rendition.getStore().delete();
+                }
+            }
+        } catch (RecorderException | IOException e) {
+            return fail(e.getMessage() != null ? e.getMessage() : e.toString());
         }
 
         return 0;
     }
 
+    /**
+     * Report why a render failed, keeping the reason for {@link #error}.
+     *
+     * @return the exit code of a failed render
+     */
+    private int fail(String message) {
+        System.err.println(message);
+        this.error = message;
+        return 1;
+    }
+
+    /**
+     * Time the rendering of frames sampled along the path, at an eighth of the video resolution.
+     */
+    private FrameCostModel sampleCosts(Home home, CameraPath path, int first, int end) throws IOException {
+        Instant start = Instant.now();
+        int probeWidth = Math.max(1, width / 8);
+        int probeHeight = Math.max(1, height / 8);
+        FrameCostModel costs;
+        if (scenes != null) {
+            List<AbstractPhotoRenderer> leased = scenes.lease(home, renderer, quality, 1);
+            boolean sampled = false;
+            try {
+                costs = FrameCostModel.sample(new CameraRenderer(leased.get(0), renderer.describe(quality), probeWidth,
+                        probeHeight, null), path, first, end, etaSamples);
+                sampled = true;
+            } finally {
+                releaseOrDispose(home, leased, sampled);
+            }
+        } else {
+            // The probe holds a whole scene export of its own, not needed once the costs are sampled
+            CameraRenderer probe = new CameraRenderer(home, probeWidth, probeHeight, renderer, quality, null);
+            try {
+                costs = FrameCostModel.sample(probe, path, first, end, etaSamples);
+            } finally {
+                probe.dispose();
+            }
+        }
+        System.out.println("Sampled the cost of " + Math.min(etaSamples, end - first) + " frames in "
+                + Progress.formatDuration(Duration.between(start, Instant.now())));
+        return costs;
+    }
+
+    /**
+     * Give leased renderers back to the scene cache once a job is done with them. After a failure, they
+     * may still be busy with frames in flight and are disposed of instead, so that they are not leased
+     * again while busy nor kept for the life of the process.
+     */
+    private void releaseOrDispose(Home home, List<AbstractPhotoRenderer> leased, boolean succeeded) {
+        if (succeeded) {
+            scenes.release(home, renderer, quality, leased);
+        } else {
+            for (AbstractPhotoRenderer photoRenderer : leased) {
+                photoRenderer.dispose();
+            }
+        }
+    }
+
+    /**
+     * Create the encoder writing the frames of a pipeline, either as a video or as an image sequence.
+     */
+    private VideoEncoder encoder(File output, FramePipeline pipeline) {
+        return imageSequence != null
+                ? new ImageSequenceEncoder(output, pipeline, imageSequence, sequenceWriters)
+                : muxer.create(output, pipeline);
+    }
+
+    /**
+     * Name the preview of a progressive render after its output, e.g. video-preview.mov for video.mov.
+     */
+    private static File previewFile(File output) {
+        String name = output.getName();
+        int extension = name.lastIndexOf('.');
+        return new File(output.getParentFile(), extension > 0
+                ? name.substring(0, extension) + "-preview" + name.substring(extension)
+                : name + "-preview");
+    }
+
     public static void main(final String[] args) throws RecorderException, IOException, NoSuchFieldException, IllegalAccessException {
-        int exitCode = new CommandLine(new HeadlessRenderer()).execute(args);
+        int exitCode = commandLine(new HeadlessRenderer()).execute(args);
         System.exit(exitCode);
     }
 
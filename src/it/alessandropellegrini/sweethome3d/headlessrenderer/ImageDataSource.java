@@ -4,7 +4,6 @@
  */
 package it.alessandropellegrini.sweethome3d.headlessrenderer;
 
-import javax.imageio.ImageIO;
 import javax.media.Buffer;
 import javax.media.Format;
 import javax.media.MediaLocator;
@@ -14,17 +13,15 @@ import javax.media.protocol.ContentDescriptor;
 import javax.media.protocol.PullBufferDataSource;
 import javax.media.protocol.PullBufferStream;
 import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 public class ImageDataSource extends PullBufferDataSource {
     private final ImageSourceStream stream;
 
-    public ImageDataSource(CameraRenderer renderer, CameraPath path) {
-        this.stream = new ImageSourceStream(renderer, path);
+    public ImageDataSource(FramePipeline pipeline) {
+        this.stream = new ImageSourceStream(pipeline);
     }
 
     @Override
@@ -77,18 +74,16 @@ public class ImageDataSource extends PullBufferDataSource {
     }
 
     private static class ImageSourceStream implements PullBufferStream {
-        private final CameraRenderer renderer;
-        private final CameraPath path;
+        private final FramePipeline pipeline;
         private final VideoFormat format;
-        private int imageIndex = 0;
-        private Instant start = null;
-
-        public ImageSourceStream(CameraRenderer renderer, CameraPath path) {
-            this.renderer = renderer;
-            this.format = new VideoFormat(VideoFormat.JPEG, new Dimension(renderer.width(), renderer.height()),
-                    Format.NOT_SPECIFIED, Format.byteArray, path.getFps());
-
-            this.path = path;
+        private final Map<byte[], FrameData> inFlight = new IdentityHashMap<>();
+        private final Progress progress;
+
+        public ImageSourceStream(FramePipeline pipeline) {
+            this.pipeline = pipeline;
+            this.progress = new Progress(pipeline);
+            this.format = new VideoFormat(VideoFormat.JPEG, new Dimension(pipeline.width(), pipeline.height()),
+                    Format.NOT_SPECIFIED, Format.byteArray, pipeline.getFps());
         }
 
         @Override
@@ -98,47 +93,31 @@ public class ImageDataSource extends PullBufferDataSource {
 
         @Override
         public void read(Buffer buffer) throws IOException {
-            if (this.start == null) {
-                this.start = Instant.now();
-            }
+            this.progress.start();
 
             buffer.setOffset(0);
 
+            // JMF hands back the buffers it has consumed: the frame data they point to can be reused
+            FrameData consumed = this.inFlight.remove(buffer.getData());
+            if (consumed != null) {
+                this.pipeline.release(consumed);
+            }
+
             if (endOfStream()) {
                 buffer.setEOM(true);
                 buffer.setLength(0);
             } else {
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                BufferedImage frame = this.renderer.renderFrameAt(this.path.get(this.imageIndex));
-                ImageIO.write(frame, "JPEG", outputStream);
-                byte[] data = outputStream.toByteArray();
-                buffer.setData(data);
-                buffer.setLength(data.length);
+                FrameData data = this.pipeline.next();
+                this.inFlight.put(data.array(), data);
+                buffer.setData(data.array());
+                buffer.setLength(data.length());
                 buffer.setFormat(this.format);
                 buffer.setFlags(buffer.getFlags() | Buffer.FLAG_KEY_FRAME);
 
-                ++this.imageIndex;
-                this.progress();
+                this.progress.frameDone();
             }
         }
 
-        private void progress() {
-            Instant now = Instant.now();
-            Duration elapsed = Duration.between(this.start, now);
-            double perFrame = (double) elapsed.getSeconds() / this.imageIndex;
-            Duration remaining = Duration.ofSeconds((long) (perFrame * (this.path.size() - this.imageIndex)));
-
-            System.out.println("Processed frame " + this.imageIndex + "/" + this.path.size() + " in "
-                    + formatDuration(elapsed) + ". ETA: " + formatDuration(remaining));
-        }
-
-        private String formatDuration(Duration duration) {
-            return String.format("%d:%02d:%02d",
-                    duration.toHours(),
-                    duration.toMinutesPart(),
-                    duration.toSecondsPart());
-        }
-
         @Override
         public Format getFormat() {
             return format;
@@ -156,7 +135,7 @@ public class ImageDataSource extends PullBufferDataSource {
 
         @Override
         public boolean endOfStream() {
-            return this.imageIndex == this.path.size();
+            return this.progress.framesDone() == this.pipeline.size();
         }
 
         @Override
@@ -170,7 +149,7 @@ public class ImageDataSource extends PullBufferDataSource {
         }
 
         public int size() {
-            return this.path.size();
+            return this.pipeline.size();
         }
     }
 }
\ No newline at end of file
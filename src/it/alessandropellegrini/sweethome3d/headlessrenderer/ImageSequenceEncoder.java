@@ -0,0 +1,191 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes the frames of a {@link FramePipeline} as numbered image files in a directory, without JMF.
+ * Frames are handed to a few writer threads as they come out of the pipeline and written with a
+ * {@link FileChannel} each, so that writing does not hold up the pipeline like a single muxer does.
+ * Every file is named after the index of its frame in the path, e.g. {@code frame-000042.png}, so that
+ * the sequences of several shards fit together; it is written aside and renamed once complete, so that
+ * the frames already in the directory can be used while the next ones are rendered.
+ */
+public class ImageSequenceEncoder implements VideoEncoder {
+    private final File directory;
+    private final FramePipeline pipeline;
+    private final Format format;
+    private final int writers;
+    private final ThreadLocal<FrameData> decoded = ThreadLocal.withInitial(FrameData::new);
+
+    /**
+     * The available formats of the frame files.
+     */
+    public enum Format {
+        /** The JPEG data of the frames, written as they are. */
+        JPEG("jpg"),
+        /**
+         * PNG files of the decoded JPEG frames. They are no more faithful than the JPEG data, whose
+         * compression losses they keep, but can be read by tools that expect PNG.
+         */
+        PNG("png"),
+        /** Binary PPM files of the decoded JPEG frames, that any tool can read without a decoder. */
+        PPM("ppm");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Create an encoder.
+     *
+     * @param directory the directory receiving the frame files, created if needed
+     * @param pipeline the pipeline producing the frames
+     * @param format the format of the frame files
+     * @param writers the number of threads writing frame files
+     */
+    public ImageSequenceEncoder(File directory, FramePipeline pipeline, Format format, int writers) {
+        if (writers < 1) {
+            throw new IllegalArgumentException("At least one writer is needed");
+        }
+        this.directory = directory;
+        this.pipeline = pipeline;
+        this.format = format;
+        this.writers = writers;
+    }
+
+    /**
+     * Hand every frame to a writer, waiting for the oldest one to be written when all of them are busy,
+     * then wait for the last ones.
+     */
+    @Override
+    public void start() throws IOException {
+        System.out.println("Creating image sequence: " + this.directory + " (" + this.pipeline.size() + " "
+                + this.format.extension + " frames)");
+        Files.createDirectories(this.directory.toPath());
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.writers, RenderPool.daemonThreads("writer-"));
+        Deque<CompletableFuture<Void>> written = new ArrayDeque<>();
+        Progress progress = new Progress(this.pipeline);
+        try {
+            progress.start();
+            for (int i = 0; i < this.pipeline.size(); i++) {
+                if (written.size() >= 2 * this.writers) {
+                    await(written.remove());
+                }
+                FrameData frame = this.pipeline.next();
+                Path file = this.directory.toPath().resolve(String.format("frame-%06d.%s",
+                        this.pipeline.firstFrame() + i, this.format.extension));
+                written.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        this.write(frame, file);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    } finally {
+                        this.pipeline.release(frame);
+                    }
+                }, executor));
+                progress.frameDone();
+            }
+            while (!written.isEmpty()) {
+                await(written.remove());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("Created image sequence: " + this.directory);
+    }
+
+    private void write(FrameData frame, Path file) throws IOException {
+        ByteBuffer data;
+        if (this.format == Format.JPEG) {
+            data = ByteBuffer.wrap(frame.array(), 0, frame.length());
+        } else {
+            // Decoded frames are laid out in a buffer kept by the writer thread for its next frames
+            FrameData image = this.decoded.get();
+            image.reset();
+            if (this.format == Format.PNG) {
+                ImageIO.write(decode(frame), "png", image);
+            } else {
+                ppm(decode(frame), image);
+            }
+            data = ByteBuffer.wrap(image.array(), 0, image.length());
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static BufferedImage decode(FrameData frame) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(frame.array(), 0, frame.length()));
+        if (image == null) {
+            throw new IOException("Cannot decode a frame");
+        }
+        return image;
+    }
+
+    /**
+     * Lay out an image as a binary PPM file: a short text header followed by the RGB bytes of the rows.
+     */
+    private static void ppm(BufferedImage image, FrameData output) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] header = ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        output.write(header, 0, header.length);
+        int[] row = new int[width];
+        byte[] bytes = new byte[3 * width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                bytes[3 * x] = (byte) (row[x] >> 16);
+                bytes[3 * x + 1] = (byte) (row[x] >> 8);
+                bytes[3 * x + 2] = (byte) row[x];
+            }
+            output.write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> written) throws IOException {
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Frame writing interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to write a frame", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import picocli.CommandLine.Option;
+
+/**
+ * The options of the commands rendering several jobs in a single process, see {@link BatchCommand}
+ * and {@link DaemonCommand}.
+ */
+public class JobOptions {
+
+    @Option(names = { "--jobs" }, description = "Number of jobs rendered concurrently (default: ${DEFAULT-VALUE})")
+    int jobs = 1;
+
+    @Option(names = { "--cached-homes" }, description = "Number of homes kept loaded with their renderers (default: ${DEFAULT-VALUE})")
+    int cachedHomes = 4;
+
+    /**
+     * Check the options.
+     *
+     * @return the reason why the options are invalid, or null if they are valid
+     */
+    String validate() {
+        if (this.jobs < 1) {
+            return "The number of concurrent jobs must be positive";
+        }
+        if (this.cachedHomes < 1) {
+            return "The number of cached homes must be positive";
+        }
+        return null;
+    }
+}
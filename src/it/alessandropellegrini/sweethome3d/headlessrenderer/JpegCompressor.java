@@ -0,0 +1,144 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Compresses frames to JPEG, reusing one {@link ImageWriter} per thread.
+ * {@link ImageIO#write(java.awt.image.RenderedImage, String, java.io.OutputStream)} looks up a writer
+ * through the service provider registry and creates it again for every frame; this class does it once
+ * per compression thread and configures the writer with an explicit {@link ImageWriteParam}.
+ * The quality, the chroma subsampling and the optimization of the Huffman tables can be tuned to
+ * trade the size of the frames for their fidelity.
+ */
+public class JpegCompressor {
+    public static final int DEFAULT_QUALITY = 75; // Same as ImageIO.write
+    public static final int SUBSAMPLING_420 = 420;
+    public static final int SUBSAMPLING_444 = 444;
+
+    private static final String NATIVE_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private final int quality;
+    private final int subsampling;
+    private final boolean optimizeHuffman;
+
+    private final ThreadLocal<ImageWriter> writers = ThreadLocal.withInitial(JpegCompressor::createWriter);
+    private final ThreadLocal<ImageWriteParam> params = ThreadLocal.withInitial(this::createParam);
+    private final ThreadLocal<IIOMetadata> metadata = new ThreadLocal<>();
+
+    public JpegCompressor() {
+        this(DEFAULT_QUALITY, SUBSAMPLING_420, false);
+    }
+
+    /**
+     * Create a compressor.
+     *
+     * @param quality the JPEG quality, from 1 to 100
+     * @param subsampling the chroma subsampling, either {@link #SUBSAMPLING_420} or {@link #SUBSAMPLING_444}
+     * @param optimizeHuffman whether to compute optimal Huffman tables for each frame
+     */
+    public JpegCompressor(int quality, int subsampling, boolean optimizeHuffman) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("The JPEG quality must be between 1 and 100");
+        }
+        if (subsampling != SUBSAMPLING_420 && subsampling != SUBSAMPLING_444) {
+            throw new IllegalArgumentException("The chroma subsampling must be either 420 or 444");
+        }
+
+        this.quality = quality;
+        this.subsampling = subsampling;
+        this.optimizeHuffman = optimizeHuffman;
+    }
+
+    /**
+     * Compress a frame.
+     *
+     * @param frame the frame to compress
+     * @param output the buffer receiving the JPEG data, which is not reset
+     * @throws IOException if the frame cannot be compressed
+     */
+    public void compress(BufferedImage frame, FrameData output) throws IOException {
+        ImageWriter writer = this.writers.get();
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(frame, null, this.metadataFor(frame)), this.params.get());
+        } finally {
+            writer.setOutput(null);
+        }
+    }
+
+    /**
+     * Describe the settings of the compressor, to tell apart frames compressed differently.
+     *
+     * @return a short description of the settings
+     */
+    public String describe() {
+        return "q" + this.quality + "-" + this.subsampling + (this.optimizeHuffman ? "-huffman" : "");
+    }
+
+    private ImageWriteParam createParam() {
+        ImageWriteParam param = this.writers.get().getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(this.quality / 100f);
+        if (param instanceof JPEGImageWriteParam) {
+            ((JPEGImageWriteParam) param).setOptimizeHuffmanTables(this.optimizeHuffman);
+        }
+        return param;
+    }
+
+    /**
+     * Return the metadata to write a frame with, or null to use the writer defaults (4:2:0 subsampling).
+     * Frames all have the same type, so the metadata are computed once per thread.
+     */
+    private IIOMetadata metadataFor(BufferedImage frame) throws IOException {
+        if (this.subsampling == SUBSAMPLING_420) {
+            return null;
+        }
+
+        IIOMetadata frameMetadata = this.metadata.get();
+        if (frameMetadata == null) {
+            frameMetadata = this.writers.get().getDefaultImageMetadata(
+                    ImageTypeSpecifier.createFromRenderedImage(frame), this.params.get());
+            IIOMetadataNode root = (IIOMetadataNode) frameMetadata.getAsTree(NATIVE_FORMAT);
+            NodeList components = root.getElementsByTagName("componentSpec");
+            for (int i = 0; i < components.getLength(); i++) {
+                IIOMetadataNode component = (IIOMetadataNode) components.item(i);
+                component.setAttribute("HsamplingFactor", "1");
+                component.setAttribute("VsamplingFactor", "1");
+            }
+            try {
+                frameMetadata.setFromTree(NATIVE_FORMAT, root);
+            } catch (IIOInvalidTreeException e) {
+                throw new IOException("Failed to set the chroma subsampling", e);
+            }
+            this.metadata.set(frameMetadata);
+        }
+        return frameMetadata;
+    }
+
+    private static ImageWriter createWriter() {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IllegalStateException("No JPEG writer available");
+        }
+        return writers.next();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Concatenates the QuickTime files of several shards of a video into a single file.
+ * The JPEG samples are copied as they are, without being decoded or compressed again.
+ */
+@Command(name = "merge", mixinStandardHelpOptions = true,
+        description = "Concatenate the shards of a video without re-encoding them")
+public class MergeCommand implements Callable<Integer> {
+
+    @Option(names = { "-o", "--output" }, required = true, description = "output file to create")
+    File output;
+
+    @Parameters(arity = "1..*", description = "QuickTime files of the shards, in order")
+    List<File> inputs;
+
+    @Override
+    public Integer call() {
+        try {
+            merge(this.inputs, this.output);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Concatenate Motion-JPEG QuickTime files with the same frame size and rate.
+     *
+     * @param inputs the files to concatenate, in order
+     * @param output the file to create, only once all the files have been copied
+     * @throws IOException if a file cannot be read or written, or if the files do not match
+     */
+    public static void merge(List<File> inputs, File output) throws IOException {
+        MjpegQuickTimeWriter writer = null;
+        try {
+            for (File input : inputs) {
+                try (MjpegQuickTimeReader reader = new MjpegQuickTimeReader(input)) {
+                    if (writer == null) {
+                        writer = new MjpegQuickTimeWriter(output, reader.width(), reader.height(), reader.getFps());
+                    } else if (reader.width() != writer.width() || reader.height() != writer.height()
+                            || reader.getFps() != writer.getFps()) {
+                        throw new IOException(input + " is " + reader.width() + "x" + reader.height() + "@"
+                                + reader.getFps() + ", while the previous shards are " + writer.width() + "x"
+                                + writer.height() + "@" + writer.getFps());
+                    }
+
+                    for (int i = 0; i < reader.sampleCount(); i++) {
+                        writer.addSample(reader.channel(), reader.sampleOffset(i), reader.sampleSize(i));
+                    }
+                    System.out.println("Merged " + input + " (" + reader.sampleCount() + " frames)");
+                }
+            }
+            writer.finish();
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        System.out.println("Created video file: " + output);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the index of the Motion-JPEG track of a QuickTime file, as written by
+ * {@link MjpegQuickTimeWriter} or by the JMF muxer.
+ * Only the sample table is decoded: the JPEG samples themselves are left in the file and can be
+ * copied as they are through {@link #channel()}.
+ */
+public class MjpegQuickTimeReader implements Closeable {
+    private final FileChannel channel;
+    private int width;
+    private int height;
+    private int fps;
+    private int[] sizes;
+    private long[] offsets;
+
+    /**
+     * Open a QuickTime file and read the index of its video track.
+     *
+     * @param input the QuickTime file
+     * @throws IOException if the file cannot be read or has no Motion-JPEG track
+     */
+    public MjpegQuickTimeReader(File input) throws IOException {
+        this.channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+        try {
+            this.readMovie(this.readMovieAtom(input));
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    public int width() {
+        return this.width;
+    }
+
+    public int height() {
+        return this.height;
+    }
+
+    public int getFps() {
+        return this.fps;
+    }
+
+    public int sampleCount() {
+        return this.sizes.length;
+    }
+
+    public int sampleSize(int index) {
+        return this.sizes[index];
+    }
+
+    public long sampleOffset(int index) {
+        return this.offsets[index];
+    }
+
+    public FileChannel channel() {
+        return this.channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private ByteBuffer readMovieAtom(File input) throws IOException {
+        long position = 0;
+        long fileSize = this.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+
+        while (position + 8 <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            long size = header.getInt() & 0xFFFFFFFFL;
+            String type = type(header);
+            int headerSize = 8;
+            if (size == 1) {
+                size = header.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = fileSize - position;
+            }
+            if (size < headerSize) {
+                break;
+            }
+
+            if ("moov".equals(type)) {
+                ByteBuffer movie = ByteBuffer.allocate((int) (size - headerSize));
+                readFully(movie, position + headerSize);
+                movie.flip();
+                return movie;
+            }
+            position += size;
+        }
+        throw new IOException("No movie atom in " + input);
+    }
+
+    private void readMovie(ByteBuffer movie) throws IOException {
+        for (ByteBuffer track = child(movie, "trak", 0); track != null; track = next(movie, "trak", track)) {
+            ByteBuffer media = child(track, "mdia", 0);
+            ByteBuffer handler = media != null ? child(media, "hdlr", 0) : null;
+            if (handler == null || !"vide".equals(type(handler.position(handler.position() + 8)))) {
+                continue;
+            }
+
+            ByteBuffer mediaHeader = require(media, "mdhd");
+            int timeScale = mediaHeader.getInt(mediaHeader.position() + 12);
+            ByteBuffer sampleTable = require(require(media, "minf"), "stbl");
+            ByteBuffer table = require(sampleTable, "stsd");
+            ByteBuffer description = table.duplicate().position(table.position() + 12);
+            if (!"jpeg".equals(type(description))) {
+                throw new IOException("The video track is not Motion-JPEG");
+            }
+            this.width = table.getShort(table.position() + 40) & 0xFFFF;
+            this.height = table.getShort(table.position() + 42) & 0xFFFF;
+
+            ByteBuffer timeToSample = require(sampleTable, "stts");
+            int sampleDuration = timeToSample.getInt(timeToSample.position() + 12);
+            this.fps = Math.round((float) timeScale / sampleDuration);
+
+            this.readSamples(sampleTable);
+            return;
+        }
+        throw new IOException("No video track");
+    }
+
+    private void readSamples(ByteBuffer sampleTable) throws IOException {
+        ByteBuffer sampleSizes = require(sampleTable, "stsz");
+        int uniformSize = sampleSizes.getInt(sampleSizes.position() + 4);
+        int count = sampleSizes.getInt(sampleSizes.position() + 8);
+        this.sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            this.sizes[i] = uniformSize != 0 ? uniformSize : sampleSizes.getInt(sampleSizes.position() + 12 + 4 * i);
+        }
+
+        long[] chunkOffsets;
+        ByteBuffer offsets32 = child(sampleTable, "stco", 0);
+        if (offsets32 != null) {
+            chunkOffsets = new long[offsets32.getInt(offsets32.position() + 4)];
+            for (int i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = offsets32.getInt(offsets32.position() + 8 + 4 * i) & 0xFFFFFFFFL;
+            }
+        } else {
+            ByteBuffer offsets64 = require(sampleTable, "co64");
+            chunkOffsets = new long[offsets64.getInt(offsets64.position() + 4)];
+            for (int i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = offsets64.getLong(offsets64.position() + 8 + 8 * i);
+            }
+        }
+
+        // Spread the samples over the chunks, as described by the sample-to-chunk runs
+        ByteBuffer sampleToChunk = require(sampleTable, "stsc");
+        int runs = sampleToChunk.getInt(sampleToChunk.position() + 4);
+        this.offsets = new long[count];
+        int sample = 0;
+        for (int run = 0; run < runs; run++) {
+            int base = sampleToChunk.position() + 8 + 12 * run;
+            int firstChunk = sampleToChunk.getInt(base) - 1;
+            int samplesPerChunk = sampleToChunk.getInt(base + 4);
+            int lastChunk = run + 1 < runs ? sampleToChunk.getInt(base + 12) - 1 : chunkOffsets.length;
+            for (int chunk = firstChunk; chunk < lastChunk; chunk++) {
+                long offset = chunkOffsets[chunk];
+                for (int i = 0; i < samplesPerChunk && sample < count; i++, sample++) {
+                    this.offsets[sample] = offset;
+                    offset += this.sizes[sample];
+                }
+            }
+        }
+        if (sample != count) {
+            throw new IOException("Inconsistent sample table");
+        }
+    }
+
+    /**
+     * Find a child atom, returning a buffer positioned at its content and limited to it.
+     */
+    private static ByteBuffer child(ByteBuffer parent, String type, int from) {
+        int position = parent.position() + from;
+        while (position + 8 <= parent.limit()) {
+            int size = parent.getInt(position);
+            if (size < 8 || position + size > parent.limit()) {
+                return null;
+            }
+            if (type.equals(type(parent.duplicate().position(position + 4)))) {
+                return parent.duplicate().position(position + 8).limit(position + size);
+            }
+            position += size;
+        }
+        return null;
+    }
+
+    private static ByteBuffer next(ByteBuffer parent, String type, ByteBuffer previous) {
+        return child(parent, type, previous.limit() - parent.position());
+    }
+
+    private static ByteBuffer require(ByteBuffer parent, String type) throws IOException {
+        ByteBuffer child = child(parent, type, 0);
+        if (child == null) {
+            throw new IOException("Missing " + type + " atom");
+        }
+        return child;
+    }
+
+    private static String type(ByteBuffer buffer) {
+        byte[] type = new byte[4];
+        buffer.get(type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, position);
+            if (read < 0) {
+                if (buffer.position() >= 8) {
+                    return; // Short header at the end of the file
+                }
+                throw new IOException("Unexpected end of file");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a Motion-JPEG QuickTime file, one JPEG sample at a time.
+ * Samples are appended to the {@code mdat} atom as they are added, while their sizes and offsets
+ * are recorded; the {@code moov} atom indexing them is written when the writer is closed.
+ * Every sample lasts the same number of frames at the frame rate of the movie, one by default.
+ * The file is written aside and renamed into place by {@link #finish()}, once every sample has been
+ * added; a writer closed without being finished deletes it, so that a failed render or merge does not
+ * leave a truncated movie that still plays.
+ */
+public class MjpegQuickTimeWriter implements Closeable {
+    private static final long SECONDS_1904_TO_1970 = 2082844800L;
+    private static final int[] IDENTITY_MATRIX = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+
+    private final Path output;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final int sampleDuration;
+    private final long mdatStart;
+    private int[] sizes = new int[1024];
+    private long[] offsets = new long[1024];
+    private int count = 0;
+    private boolean finished = false;
+
+    /**
+     * Create a QuickTime file aside the output and write its header.
+     *
+     * @param output the file to create
+     * @param width the width of the frames
+     * @param height the height of the frames
+     * @param fps the number of frames per second
+     * @throws IOException if the file cannot be written
+     */
+    public MjpegQuickTimeWriter(File output, int width, int height, int fps) throws IOException {
+        this(output, width, height, fps, 1);
+    }
+
+    /**
+     * Create a QuickTime file aside the output, whose samples last several frames, and write its header.
+     *
+     * @param output the file to create, replaced once the writer is finished
+     * @param width the width of the frames
+     * @param height the height of the frames
+     * @param fps the number of frames per second
+     * @param sampleDuration the number of frames each sample lasts
+     * @throws IOException if the file cannot be written
+     */
+    public MjpegQuickTimeWriter(File output, int width, int height, int fps, int sampleDuration) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.sampleDuration = sampleDuration;
+        this.output = output.toPath();
+        this.temporary = new File(output.getPath() + ".tmp").toPath();
+        this.channel = FileChannel.open(this.temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            writeFully(this.channel, ByteBuffer.wrap(atom("ftyp", fileType())));
+
+            // 64-bit mdat header, its size is known only at the end
+            this.mdatStart = this.channel.position();
+            ByteBuffer mdatHeader = ByteBuffer.allocate(16);
+            mdatHeader.putInt(1).put(type("mdat")).putLong(0).flip();
+            writeFully(this.channel, mdatHeader);
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Append a JPEG sample.
+     *
+     * @param data the buffer holding the sample
+     * @param offset the offset of the sample in the buffer
+     * @param length the length of the sample
+     * @throws IOException if the sample cannot be written
+     */
+    public void addSample(byte[] data, int offset, int length) throws IOException {
+        this.record(length);
+        writeFully(this.channel, ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Append a JPEG sample copied from another file, without going through the heap.
+     *
+     * @param source the channel of the file holding the sample
+     * @param position the position of the sample in the file
+     * @param length the length of the sample
+     * @throws IOException if the sample cannot be copied
+     */
+    public void addSample(FileChannel source, long position, int length) throws IOException {
+        this.record(length);
+        for (long copied = 0; copied < length; ) {
+            copied += source.transferTo(position + copied, length - copied, this.channel);
+        }
+    }
+
+    private void record(int length) throws IOException {
+        if (this.count == this.sizes.length) {
+            this.sizes = Arrays.copyOf(this.sizes, 2 * this.count);
+            this.offsets = Arrays.copyOf(this.offsets, 2 * this.count);
+        }
+        this.sizes[this.count] = length;
+        this.offsets[this.count] = this.channel.position();
+        ++this.count;
+    }
+
+    public int sampleCount() {
+        return this.count;
+    }
+
+    public int width() {
+        return this.width;
+    }
+
+    public int height() {
+        return this.height;
+    }
+
+    public int getFps() {
+        return this.fps;
+    }
+
+    /**
+     * Complete the mdat atom, write the moov atom and move the file into place.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void finish() throws IOException {
+        long mdatEnd = this.channel.position();
+        writeFully(this.channel, ByteBuffer.allocate(8).putLong(mdatEnd - this.mdatStart).flip(), this.mdatStart + 8);
+        writeFully(this.channel, ByteBuffer.wrap(this.movie()), mdatEnd);
+        this.channel.close();
+        Files.move(this.temporary, this.output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.finished = true;
+    }
+
+    /**
+     * Delete the file unless it was finished.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.channel.close();
+        } finally {
+            if (!this.finished) {
+                Files.deleteIfExists(this.temporary);
+            }
+        }
+    }
+
+    private static byte[] fileType() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(type("qt  "));
+        out.writeInt(0x20050300);
+        out.write(type("qt  "));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Build the moov atom of a single Motion-JPEG track where each sample lasts the same number of
+     * time units, a time unit being a frame.
+     */
+    private byte[] movie() throws IOException {
+        int[] sizes = Arrays.copyOf(this.sizes, this.count);
+        long[] offsets = Arrays.copyOf(this.offsets, this.count);
+        int timeScale = this.fps;
+        int duration = this.count * this.sampleDuration;
+        int now = (int) (System.currentTimeMillis() / 1000 + SECONDS_1904_TO_1970);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // Version and flags
+        out.writeInt(now);
+        out.writeInt(now);
+        out.writeInt(timeScale);
+        out.writeInt(duration);
+        out.writeInt(0x00010000); // Preferred rate
+        out.writeShort(0x0100); // Preferred volume
+        out.write(new byte[10]);
+        writeMatrix(out);
+        out.write(new byte[24]); // Preview, poster, selection and current times
+        out.writeInt(2); // Next track ID
+        byte[] movieHeader = atom("mvhd", bytes.toByteArray());
+
+        bytes.reset();
+        out.writeInt(0x0000000F); // Enabled, in movie, in preview and in poster
+        out.writeInt(now);
+        out.writeInt(now);
+        out.writeInt(1); // Track ID
+        out.writeInt(0);
+        out.writeInt(duration);
+        out.write(new byte[8]);
+        out.writeShort(0); // Layer
+        out.writeShort(0); // Alternate group
+        out.writeShort(0); // Volume
+        out.writeShort(0);
+        writeMatrix(out);
+        out.writeInt(this.width << 16);
+        out.writeInt(this.height << 16);
+        byte[] trackHeader = atom("tkhd", bytes.toByteArray());
+
+        bytes.reset();
+        out.writeInt(0);
+        out.writeInt(now);
+        out.writeInt(now);
+        out.writeInt(timeScale);
+        out.writeInt(duration);
+        out.writeShort(0); // Language
+        out.writeShort(0); // Quality
+        byte[] mediaHeader = atom("mdhd", bytes.toByteArray());
+
+        byte[] mediaInformation = atom("minf",
+                atom("vmhd", 0x00000001, 0x00408000, 0x80008000),
+                handler("dhlr", "alis", "DataHandler"),
+                atom("dinf", atom("dref", 0, 1, 12, ints(type("alis")), 0x00000001)),
+                atom("stbl",
+                        atom("stsd", sampleDescription()),
+                        atom("stts", 0, 1, sizes.length, this.sampleDuration),
+                        atom("stsc", 0, 1, 1, 1, 1),
+                        atom("stsz", sampleSizes(sizes)),
+                        chunkOffsets(offsets)));
+
+        return atom("moov", movieHeader,
+                atom("trak", trackHeader,
+                        atom("mdia", mediaHeader, handler("mhlr", "vide", "VideoHandler"), mediaInformation)));
+    }
+
+    private byte[] sampleDescription() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // Version and flags
+        out.writeInt(1); // Number of entries
+        out.writeInt(86); // Size of the entry
+        out.write(type("jpeg"));
+        out.write(new byte[6]);
+        out.writeShort(1); // Data reference index
+        out.writeShort(0); // Version
+        out.writeShort(0); // Revision level
+        out.write(type("appl"));
+        out.writeInt(0); // Temporal quality
+        out.writeInt(0x00000200); // Spatial quality: normal
+        out.writeShort(this.width);
+        out.writeShort(this.height);
+        out.writeInt(0x00480000); // 72 dpi
+        out.writeInt(0x00480000);
+        out.writeInt(0); // Data size
+        out.writeShort(1); // Frames per sample
+        byte[] name = "Photo - JPEG".getBytes(StandardCharsets.US_ASCII);
+        out.writeByte(name.length);
+        out.write(name);
+        out.write(new byte[31 - name.length]);
+        out.writeShort(24); // Depth
+        out.writeShort(-1); // No color table
+        return bytes.toByteArray();
+    }
+
+    private static byte[] sampleSizes(int[] sizes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + 4 * sizes.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0); // Samples have different sizes
+        out.writeInt(sizes.length);
+        for (int size : sizes) {
+            out.writeInt(size);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Build the chunk offsets atom, one sample per chunk, switching to 64-bit offsets for large files.
+     */
+    private static byte[] chunkOffsets(long[] offsets) throws IOException {
+        boolean large = offsets.length > 0 && offsets[offsets.length - 1] > 0xFFFFFFFFL;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + 8 * offsets.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(offsets.length);
+        for (long offset : offsets) {
+            if (large) {
+                out.writeLong(offset);
+            } else {
+                out.writeInt((int) offset);
+            }
+        }
+        return atom(large ? "co64" : "stco", bytes.toByteArray());
+    }
+
+    private static byte[] handler(String componentType, String componentSubtype, String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.write(type(componentType));
+        out.write(type(componentSubtype));
+        out.writeInt(0); // Manufacturer
+        out.writeInt(0); // Flags
+        out.writeInt(0); // Flags mask
+        byte[] bytesName = name.getBytes(StandardCharsets.US_ASCII);
+        out.writeByte(bytesName.length);
+        out.write(bytesName);
+        return atom("hdlr", bytes.toByteArray());
+    }
+
+    private static void writeMatrix(DataOutputStream out) throws IOException {
+        for (int value : IDENTITY_MATRIX) {
+            out.writeInt(value);
+        }
+    }
+
+    private static byte[] atom(String type, int... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 * values.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+        return atom(type, bytes.toByteArray());
+    }
+
+    private static byte[] atom(String type, byte[]... children) {
+        int size = 8;
+        for (byte[] child : children) {
+            size += child.length;
+        }
+
+        ByteBuffer atom = ByteBuffer.allocate(size);
+        atom.putInt(size).put(type(type));
+        for (byte[] child : children) {
+            atom.put(child);
+        }
+        return atom.array();
+    }
+
+    private static byte[] type(String type) {
+        return type.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int ints(byte[] type) {
+        return ByteBuffer.wrap(type).getInt();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
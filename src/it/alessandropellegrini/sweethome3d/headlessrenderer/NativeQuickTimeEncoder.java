@@ -0,0 +1,41 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A Motion-JPEG QuickTime muxer writing the file directly, without JMF.
+ * The JPEG samples are handed to a {@link MjpegQuickTimeWriter} as they come out of the pipeline;
+ * the file appears only once all of them have been written.
+ */
+public class NativeQuickTimeEncoder implements VideoEncoder {
+    private final File output;
+    private final FramePipeline pipeline;
+
+    public NativeQuickTimeEncoder(File output, FramePipeline pipeline) {
+        this.output = output;
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public void start() throws IOException {
+        System.out.println("Creating video file: " + this.output + " (" + this.pipeline.size() + " frames)");
+
+        Progress progress = new Progress(this.pipeline);
+        try (MjpegQuickTimeWriter writer = new MjpegQuickTimeWriter(this.output, this.pipeline.width(),
+                this.pipeline.height(), this.pipeline.getFps())) {
+            progress.start();
+            for (int i = 0; i < this.pipeline.size(); i++) {
+                FrameData frame = this.pipeline.next();
+                writer.addSample(frame.array(), 0, frame.length());
+                this.pipeline.release(frame);
+                progress.frameDone();
+            }
+            writer.finish();
+        }
+    }
+}
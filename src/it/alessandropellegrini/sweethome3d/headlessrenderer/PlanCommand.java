@@ -0,0 +1,185 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.io.HomeFileRecorder;
+import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.RecorderException;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+/**
+ * Describes the video a render would produce, without rendering it.
+ * The camera path of the home is computed to count the frames of the video and of every segment
+ * between two key cameras; a few frames spread along the path are then rendered at an eighth of
+ * the resolution, see {@link FrameCostModel#sample}, and their time is extrapolated to the whole video
+ * in proportion to the number of pixels. The estimate is rough, but takes seconds rather than hours.
+ */
+@Command(name = "plan", mixinStandardHelpOptions = true,
+        description = "Count the frames of a video and estimate its render time, without rendering it")
+public class PlanCommand implements Callable<Integer> {
+
+    @Option(names = { "-w", "--width" }, required = true, description = "Redering width")
+    int width;
+
+    @Option(names = { "-h", "--height" }, required = true, description = "Redering height")
+    int height;
+
+    @Option(names = { "-f", "--fps" }, required = true, description = "Frames per second")
+    int fps;
+
+    @Option(names = { "-s", "--speed" }, required = true, description = "Camera speed (m/s)")
+    float speed;
+
+    @Option(names = { "-i", "--input" }, required = true, description = "SH3D File")
+    File input;
+
+    @Option(names = { "--renderer" }, description = "Photo renderer, either yafaray or sunflow (default: ${DEFAULT-VALUE})")
+    RendererBackend renderer = RendererBackend.YAFARAY;
+
+    @Option(names = { "--quality" }, description = "Render quality, either low or high (default: ${DEFAULT-VALUE})")
+    AbstractPhotoRenderer.Quality quality = AbstractPhotoRenderer.Quality.HIGH;
+
+    @Option(names = { "--render-scale" }, description = "Fraction of the width and height rendered (default: ${DEFAULT-VALUE})")
+    double renderScale = 1;
+
+    @Option(names = { "--parallel-frames" }, description = "Number of frames that would be rendered concurrently (default: ${DEFAULT-VALUE})")
+    int parallelFrames = 1;
+
+    @Option(names = { "--samples" }, description = "Number of frames rendered along the path to estimate the render time, 0 to only count frames (default: ${DEFAULT-VALUE})")
+    int samples = 8;
+
+    @Option(names = { "--json" }, description = "Print the plan as a JSON object")
+    boolean json = false;
+
+    @Override
+    public Integer call() {
+        if (this.width < 1 || this.height < 1) {
+            System.out.println("The width and height must be positive");
+            return 64;
+        }
+        if (this.fps < 1 || this.speed <= 0) {
+            System.out.println("The fps and speed must be positive");
+            return 64;
+        }
+        if (!(this.renderScale > 0 && this.renderScale <= 1)) {
+            System.out.println("The render scale must be greater than 0 and at most 1");
+            return 64;
+        }
+        if (this.parallelFrames < 1) {
+            System.out.println("The number of parallel frames must be positive");
+            return 64;
+        }
+        if (this.samples < 0) {
+            System.out.println("The number of samples cannot be negative");
+            return 64;
+        }
+
+        try {
+            Home home = (new HomeFileRecorder()).readHome(String.valueOf(this.input));
+            CameraPath path = new CameraPath(home, this.speed, this.fps);
+            List<Integer> segments = new ArrayList<>();
+            for (int segment = 1; segment < path.segmentCount(); segment++) {
+                segments.add(path.lastFrame(segment) - path.lastFrame(segment - 1));
+            }
+
+            Estimate estimate = this.samples > 0 ? this.estimate(home, path) : null;
+            if (this.json) {
+                this.printJson(path, segments, estimate);
+            } else {
+                this.print(path, segments, estimate);
+            }
+        } catch (RecorderException | IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Time the rendering of frames spread along the path at an eighth of the rendered size, as
+     * {@code --eta-samples} does, then scale their total cost to the rendered size.
+     */
+    private Estimate estimate(Home home, CameraPath path) throws IOException {
+        Instant start = Instant.now();
+        int renderWidth = FrameScaler.scale(this.width, this.renderScale);
+        int renderHeight = FrameScaler.scale(this.height, this.renderScale);
+        CameraRenderer probe = new CameraRenderer(home, Math.max(1, renderWidth / 8), Math.max(1, renderHeight / 8),
+                this.renderer, this.quality, null);
+        FrameCostModel costs;
+        try {
+            costs = FrameCostModel.sample(probe, path, 0, path.size(), this.samples);
+        } finally {
+            probe.dispose();
+        }
+
+        double pixelRatio = (double) renderWidth * renderHeight / ((double) probe.width() * probe.height());
+        long nanos = (long) (costs.remaining(0) * pixelRatio / this.parallelFrames);
+        return new Estimate(Math.min(this.samples, path.size()), probe.width(), probe.height(),
+                Duration.between(start, Instant.now()), Duration.ofNanos(nanos));
+    }
+
+    private void print(CameraPath path, List<Integer> segments, Estimate estimate) {
+        System.out.println("Frames: " + path.size() + " (" + seconds(path.size()) + " s at " + this.fps + " fps)");
+        for (int segment = 1; segment <= segments.size(); segment++) {
+            int frames = segments.get(segment - 1);
+            if (frames == 0) {
+                System.out.println("Segment " + segment + ": no frames");
+                continue;
+            }
+            System.out.println("Segment " + segment + ": frames " + (path.lastFrame(segment - 1) + 1) + "-"
+                    + path.lastFrame(segment) + " (" + frames + " frames, " + seconds(frames) + " s)");
+        }
+        if (estimate != null) {
+            System.out.println("Sampled " + estimate.samples + " frames at " + estimate.probeWidth + "x"
+                    + estimate.probeHeight + " in " + Progress.formatDuration(estimate.sampling));
+            System.out.println("Estimated render time: " + Progress.formatDuration(estimate.render) + " with "
+                    + this.parallelFrames + " parallel frames");
+        }
+    }
+
+    private void printJson(CameraPath path, List<Integer> segments, Estimate estimate) {
+        StringBuilder plan = new StringBuilder("{\"frames\":").append(path.size())
+                .append(",\"fps\":").append(this.fps)
+                .append(",\"duration_seconds\":").append(seconds(path.size()))
+                .append(",\"segments\":").append(segments.toString().replace(" ", ""));
+        if (estimate != null) {
+            plan.append(",\"sampled_frames\":").append(estimate.samples)
+                    .append(",\"sampling_seconds\":").append(estimate.sampling.toMillis() / 1000.0)
+                    .append(",\"estimated_seconds\":").append(estimate.render.getSeconds());
+        }
+        System.out.println(plan.append('}'));
+    }
+
+    private String seconds(int frames) {
+        return String.format(Locale.ROOT, "%.2f", (double) frames / this.fps);
+    }
+
+    private static class Estimate {
+        final int samples;
+        final int probeWidth;
+        final int probeHeight;
+        final Duration sampling;
+        final Duration render;
+
+        Estimate(int samples, int probeWidth, int probeHeight, Duration sampling, Duration render) {
+            this.samples = samples;
+            this.probeWidth = probeWidth;
+            this.probeHeight = probeHeight;
+            this.sampling = sampling;
+            this.render = render;
+        }
+    }
+}
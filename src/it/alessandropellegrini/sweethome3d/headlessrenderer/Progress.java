@@ -0,0 +1,81 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Reports the progress of an encoder through the frames of a {@link FramePipeline}.
+ * The remaining time is extrapolated from the recent frames only, with exponential smoothing: the
+ * time between frames is compared with their cost in the {@link FrameCostModel} of the pipeline, so
+ * that a room full of furniture ahead in the path lengthens the estimate before it is reached.
+ */
+public class Progress {
+    private static final double SMOOTHING = 0.1; // Weight of the last frame, about the last 10 frames count
+
+    private final FramePipeline pipeline;
+    private int imageIndex = 0;
+    private Instant start = null;
+    private long lastFrame;
+    private double smoothedNanos = 0;
+    private double smoothedCost = 0;
+
+    public Progress(FramePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Mark the beginning of the encoding, if not done yet.
+     */
+    public void start() {
+        if (this.start == null) {
+            this.start = Instant.now();
+            this.lastFrame = System.nanoTime();
+        }
+    }
+
+    /**
+     * Report that one more frame has been encoded.
+     */
+    public void frameDone() {
+        this.start();
+        ++this.imageIndex;
+
+        Duration elapsed = Duration.between(this.start, Instant.now());
+        Duration remaining = this.estimate();
+
+        System.out.println("Processed frame " + this.imageIndex + "/" + this.pipeline.size() + " in "
+                + formatDuration(elapsed) + ". ETA: " + formatDuration(remaining)
+                + ". Queues: " + this.pipeline.occupancy());
+    }
+
+    /**
+     * Estimate the time left, from the smoothed time per unit of cost of the last frames.
+     * Both terms are smoothed the same way, so that their ratio is not biased towards zero while
+     * only a few frames are done.
+     */
+    private Duration estimate() {
+        long now = System.nanoTime();
+        long interval = now - this.lastFrame;
+        this.lastFrame = now;
+
+        FrameCostModel costs = this.pipeline.costs();
+        this.smoothedNanos += SMOOTHING * (interval - this.smoothedNanos);
+        this.smoothedCost += SMOOTHING * (costs.cost(this.imageIndex - 1) - this.smoothedCost);
+        return Duration.ofNanos((long) (this.smoothedNanos / this.smoothedCost * costs.remaining(this.imageIndex)));
+    }
+
+    public int framesDone() {
+        return this.imageIndex;
+    }
+
+    static String formatDuration(Duration duration) {
+        return String.format("%d:%02d:%02d",
+                duration.toHours(),
+                duration.toMinutesPart(),
+                duration.toSecondsPart());
+    }
+}
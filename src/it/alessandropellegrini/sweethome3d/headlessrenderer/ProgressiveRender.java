@@ -0,0 +1,163 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Renders the frames of a video coarse to fine, into its {@link FrameStore}.
+ * The first pass renders every n-th frame, the next one the frames halfway between them, and so on
+ * until every frame is rendered. After each pass but the last, a preview video holding the frames
+ * rendered so far is written: it lasts as long as the final video, at a lower frame rate.
+ * Frames are rendered out of order, so they are only muxed into the final video once they are all
+ * in the store, by a {@link FramePipeline} reusing them.
+ */
+public class ProgressiveRender {
+    private final RenderStage renderers;
+    private final CameraPath path;
+    private final FrameStore store;
+    private final List<Rendition> renditions;
+    private final boolean resume;
+    private final FrameMetrics metrics;
+    private final ConcurrentLinkedQueue<FrameData> spareData = new ConcurrentLinkedQueue<>();
+    private final int firstFrame;
+    private final int endFrame;
+    private final int depth;
+
+    /**
+     * Prepare the passes over a range of frames.
+     *
+     * @param renderers the stage rendering and compressing the frames
+     * @param path the path of the video frames
+     * @param firstFrame the index of the first frame to render, inclusive
+     * @param endFrame the index of the last frame to render, exclusive
+     * @param depth the maximum number of frames in flight
+     * @param store the store where compressed frames are persisted
+     * @param resume whether frames already in the store should be reused
+     * @param metrics where to record the timings of the frames, or null
+     * @param renditions the renditions whose frames the render stage downscales, or an empty list
+     */
+    public ProgressiveRender(RenderStage renderers, CameraPath path, int firstFrame, int endFrame, final int depth,
+                             FrameStore store, boolean resume, FrameMetrics metrics, List<Rendition> renditions) {
+        this.renderers = renderers;
+        this.path = path;
+        this.firstFrame = firstFrame;
+        this.endFrame = endFrame;
+        this.depth = depth;
+        this.store = store;
+        this.renditions = renditions;
+        this.resume = resume;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Render all the frames, pass after pass.
+     *
+     * @param stride the distance between the frames of the first pass, a power of two
+     * @param preview the preview video to write after each pass
+     * @return whether the preview was written
+     * @throws IOException if a frame cannot be rendered, or the preview cannot be written
+     */
+    public boolean run(int stride, File preview) throws IOException {
+        if (stride < 1 || Integer.bitCount(stride) != 1) {
+            throw new IllegalArgumentException("The stride must be a power of two");
+        }
+
+        boolean previewed = false;
+        for (int step = stride; step >= 1; step /= 2) {
+            Instant start = Instant.now();
+            int rendered = this.renderPass(step, stride);
+            System.out.println("Rendered " + rendered + " frames at 1/" + step + " of the frame rate in "
+                    + Progress.formatDuration(Duration.between(start, Instant.now())));
+
+            if (step > 1) {
+                this.writePreview(step, preview);
+                System.out.println("Preview at " + this.path.getFps() + "/" + step + " fps: " + preview);
+                previewed = true;
+            }
+        }
+        return previewed;
+    }
+
+    /**
+     * Render the frames of a pass: those at a multiple of the step, and not of the previous step.
+     *
+     * @return the number of frames actually rendered
+     */
+    private int renderPass(int step, int stride) throws IOException {
+        Deque<CompletableFuture<FrameData>> pending = new ArrayDeque<>();
+        int rendered = 0;
+        try {
+            for (int offset = 0; offset < this.endFrame - this.firstFrame; offset += step) {
+                if (step < stride && offset % (2 * step) == 0) {
+                    continue; // Rendered by a previous pass
+                }
+
+                final int index = this.firstFrame + offset;
+                if (this.resume && this.store.contains(index) && Rendition.contain(this.renditions, index)) {
+                    continue;
+                }
+
+                if (pending.size() == this.depth) {
+                    this.spareData.add(pending.remove().get());
+                }
+                FrameData spare = this.spareData.poll();
+                pending.add(this.renderers.submit(this.path.track(index, index + 1), 0,
+                        spare != null ? spare : new FrameData()).thenApply(data -> {
+                    try {
+                        this.store.save(index, data);
+                        Rendition.save(this.renditions, index, data);
+                        if (this.metrics != null) {
+                            this.metrics.record(index, FrameMetrics.Source.RENDERED, data.getRenderNanos(),
+                                    data.getEncodeNanos(), -1, -1);
+                        }
+                        return data;
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+                ++rendered;
+            }
+
+            while (!pending.isEmpty()) {
+                this.spareData.add(pending.remove().get());
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Frame rendering interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to render a frame", e.getCause());
+        }
+        return rendered;
+    }
+
+    /**
+     * Replace the preview with the frames at a multiple of the step, each lasting the step.
+     * The preview is written aside first, so that it can be watched while the next pass renders.
+     */
+    private void writePreview(int step, File preview) throws IOException {
+        try (MjpegQuickTimeWriter writer = new MjpegQuickTimeWriter(preview, this.renderers.width(),
+                this.renderers.height(), this.path.getFps(), step)) {
+            for (int index = this.firstFrame; index < this.endFrame; index += step) {
+                FrameData frame = this.store.load(index);
+                writer.addSample(frame.array(), 0, frame.length());
+            }
+            writer.finish();
+        }
+    }
+}
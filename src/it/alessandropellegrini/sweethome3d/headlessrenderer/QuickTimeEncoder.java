@@ -18,7 +18,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 
-public class QuickTimeEncoder {
+public class QuickTimeEncoder implements VideoEncoder {
 
     private final Object waitSync = new Object();
     private boolean stateTransitionOk = true;
@@ -34,9 +34,9 @@ public class QuickTimeEncoder {
         this.dataSource = null;
     }
 
-    public QuickTimeEncoder(File output, CameraRenderer renderer, CameraPath path) {
+    public QuickTimeEncoder(File output, FramePipeline pipeline) {
         this.output = output;
-        this.dataSource = new ImageDataSource(renderer, path);
+        this.dataSource = new ImageDataSource(pipeline);
     }
 
     /**
@@ -45,7 +45,8 @@ public class QuickTimeEncoder {
      *
      * @throws IOException if an error occurs while encoding the video
      */
-    public void start() throws IOException, IncompatibleSourceException {
+    @Override
+    public void start() throws IOException {
         assert (this.dataSource != null);
         assert (this.output != null);
 
@@ -121,6 +122,8 @@ public class QuickTimeEncoder {
             }
         } catch (NoProcessorException ex) {
             throw new IOException(ex.getMessage(), ex);
+        } catch (IncompatibleSourceException ex) {
+            throw new IOException("The frames cannot be processed by JMF", ex);
         } catch (NoDataSinkException ex) {
             throw new IOException("Failed to create a DataSink for the given output MediaLocator", ex);
         } catch (InterruptedException ex) {
@@ -0,0 +1,293 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.model.Camera;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of {@link CameraRenderer}s that render different frames concurrently in this process.
+ * Every renderer owns its own photo renderer, see {@link RendererBackend}, built from
+ * the same {@link com.eteks.sweethome3d.model.Home}, and is leased to one frame at a time.
+ * Rendered frames are then compressed to JPEG on a dedicated executor, so that compression
+ * overlaps with the rendering of the following frames.
+ * Frames are rendered into the buffers of a {@link FrameBufferPool}, released once compressed.
+ * With a {@link FrameTiling}, every frame is split into tiles rendered concurrently by the
+ * renderers of the pool, which lowers the latency of each frame.
+ * Every rendered frame can also be downscaled and compressed for the {@link Rendition}s of the video.
+ * Renderers smaller than the video render frames at a fraction of its size, upscaled before compression.
+ * A pool that owns its renderers disposes them once closed, as soon as they are done with their frame.
+ */
+public class RenderPool implements RenderStage {
+    private final BlockingQueue<CameraRenderer> renderers;
+    private final ExecutorService executor;
+    private final ExecutorService compressors;
+    private final FrameBufferPool buffers;
+    private final JpegCompressor compressor;
+    private final FrameCache cache;
+    private final FrameTiling tiling;
+    private final List<Rendition> renditions;
+    private final String description;
+    private final int size;
+    private final int width;
+    private final int height;
+    private final ThreadLocal<BufferedImage> upscaled;
+    private final boolean ownsRenderers;
+    private boolean closed = false;
+
+    private final AtomicInteger rendering = new AtomicInteger();
+    private final AtomicInteger compressing = new AtomicInteger();
+
+    /**
+     * Create a pool of renderers, either new or kept from previous jobs.
+     * Renderers smaller than the video render frames upscaled with {@link FrameScaler#upscale}.
+     *
+     * @param renderers the renderers of the pool, all of the same size, not larger than the video
+     * @param width the width of the video frames
+     * @param height the height of the video frames
+     * @param buffers the number of frames that can be in flight, rendered or compressed
+     * @param cache the cache of rendered frames shared by the renderers, or null
+     * @param compressor the compressor of the rendered frames
+     * @param tiling how to split frames into tiles, or null to render every frame on a single renderer
+     * @param renditions the renditions to downscale every frame for, or an empty list
+     * @param ownsRenderers whether the pool disposes the renderers when closed, rather than the renderers
+     *                      being leased from a {@link SceneCache}
+     */
+    public RenderPool(List<CameraRenderer> renderers, final int width, final int height, final int buffers,
+                      FrameCache cache, JpegCompressor compressor, FrameTiling tiling, List<Rendition> renditions,
+                      boolean ownsRenderers) {
+        if (renderers.isEmpty()) {
+            throw new IllegalArgumentException("The pool needs at least one renderer");
+        }
+
+        int size = renderers.size();
+        this.renderers = new ArrayBlockingQueue<>(size, false, renderers);
+
+        this.executor = Executors.newFixedThreadPool(size, daemonThreads("renderer-"));
+        this.compressors = Executors.newFixedThreadPool(size, daemonThreads("jpeg-"));
+        CameraRenderer first = renderers.get(0);
+        this.buffers = new FrameBufferPool(first.width(), first.height(), buffers);
+        this.compressor = compressor;
+        this.cache = cache;
+        this.tiling = tiling;
+        this.renditions = renditions;
+        this.description = this.renderers.peek().describe();
+        this.size = size;
+        this.width = width;
+        this.height = height;
+        this.upscaled = first.width() != width || first.height() != height
+                ? ThreadLocal.withInitial(() -> new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB))
+                : null;
+        this.ownsRenderers = ownsRenderers;
+    }
+
+    /**
+     * Schedule the rendering of a frame on the first available renderer, or of its tiles on all of
+     * them, then its compression.
+     * Callers never have more frames in flight than buffers, so leasing one does not block.
+     */
+    @Override
+    public CompletableFuture<FrameData> submit(CameraTrack track, int index, FrameData output) {
+        BufferedImage buffer;
+        try {
+            buffer = this.buffers.lease();
+        } catch (InterruptedException e) {
+            return CompletableFuture.failedFuture(new InterruptedIOException("Frame rendering interrupted"));
+        }
+
+        this.rendering.incrementAndGet();
+        long[] renderNanos = new long[1];
+        CompletableFuture<BufferedImage> rendered;
+        Camera frameCamera = this.tiling != null ? track.toCamera(index) : null;
+        if (frameCamera != null && FrameTiling.supports(frameCamera)) {
+            rendered = this.renderTiles(frameCamera, buffer, renderNanos);
+        } else {
+            rendered = CompletableFuture.supplyAsync(() -> this.withRenderer(renderer -> {
+                long start = System.nanoTime();
+                BufferedImage frame = renderer.renderFrameAt(track, index, buffer);
+                renderNanos[0] = System.nanoTime() - start;
+                return frame;
+            }), this.executor);
+        }
+        rendered = rendered.whenComplete((frame, error) -> {
+            this.rendering.decrementAndGet();
+            if (error != null) {
+                this.buffers.release(buffer);
+            } else {
+                // Only rendered frames reach the compression stage, which counts them down
+                this.compressing.incrementAndGet();
+            }
+        });
+
+        return rendered.thenApplyAsync(frame -> {
+            try {
+                long start = System.nanoTime();
+                BufferedImage video = frame;
+                if (this.upscaled != null) {
+                    video = this.upscaled.get();
+                    FrameScaler.upscale(frame, video);
+                }
+                output.reset();
+                this.compressor.compress(video, output);
+                for (int i = 0; i < this.renditions.size(); i++) {
+                    // Downscale from the rendered frame when it is large enough, rather than from its upscaled copy
+                    Rendition rendition = this.renditions.get(i);
+                    BufferedImage source = frame.getWidth() >= rendition.width() && frame.getHeight() >= rendition.height()
+                            ? frame : video;
+                    rendition.compress(source, this.compressor, output.rendition(i));
+                }
+                output.setTimings(renderNanos[0], System.nanoTime() - start);
+                return output;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                this.buffers.release(buffer);
+                this.compressing.decrementAndGet();
+            }
+        }, this.compressors);
+    }
+
+    /**
+     * Render the tiles of a frame on all the renderers of the pool, then stitch them into the buffer.
+     * The rendering time spans from the first tile started to the frame stitched.
+     */
+    private CompletableFuture<BufferedImage> renderTiles(Camera frameCamera, BufferedImage buffer, long[] renderNanos) {
+        String key = this.cache != null ? this.cache.key(frameCamera, buffer.getWidth(), buffer.getHeight(),
+                this.description + "-tiles" + this.tiling.describe()) : null;
+        long[] start = new long[1];
+
+        return CompletableFuture.supplyAsync(() -> {
+                    start[0] = System.nanoTime();
+                    return key != null ? this.cache.get(key, buffer) : null;
+                }, this.executor)
+                .thenCompose(cached -> {
+                    if (cached != null) {
+                        renderNanos[0] = System.nanoTime() - start[0];
+                        return CompletableFuture.completedFuture(cached);
+                    }
+
+                    List<FrameTiling.Tile> tiles = this.tiling.split(frameCamera);
+                    CompletableFuture<?>[] rendered = new CompletableFuture<?>[tiles.size()];
+                    for (int i = 0; i < rendered.length; i++) {
+                        FrameTiling.Tile tile = tiles.get(i);
+                        rendered[i] = CompletableFuture.runAsync(() -> this.withRenderer(renderer -> {
+                            renderer.renderTile(tile);
+                            return tile;
+                        }), this.executor);
+                    }
+
+                    return CompletableFuture.allOf(rendered).thenApplyAsync(done -> {
+                        for (FrameTiling.Tile tile : tiles) {
+                            this.tiling.stitch(tile, buffer);
+                        }
+                        if (key != null) {
+                            try {
+                                this.cache.put(key, buffer);
+                            } catch (IOException e) {
+                                throw new CompletionException(e);
+                            }
+                        }
+                        renderNanos[0] = System.nanoTime() - start[0];
+                        return buffer;
+                    }, this.compressors);
+                });
+    }
+
+    /**
+     * Run a task on the first available renderer, waiting for one if all of them are busy.
+     */
+    private <T> T withRenderer(RendererTask<T> task) {
+        CameraRenderer renderer;
+        try {
+            renderer = this.renderers.take();
+        } catch (InterruptedException e) {
+            throw new CompletionException(new InterruptedIOException("Frame rendering interrupted"));
+        }
+
+        try {
+            return task.run(renderer);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            this.giveBack(renderer);
+        }
+    }
+
+    /**
+     * Put a renderer back in the pool once done with a frame or, once the pool is closed, dispose it.
+     */
+    private void giveBack(CameraRenderer renderer) {
+        synchronized (this.renderers) {
+            if (!this.closed || !this.ownsRenderers) {
+                this.renderers.add(renderer);
+                return;
+            }
+        }
+        renderer.dispose();
+    }
+
+    private interface RendererTask<T> {
+        T run(CameraRenderer renderer) throws IOException;
+    }
+
+    @Override
+    public String occupancy() {
+        return "render " + this.rendering.get() + ", jpeg " + this.compressing.get();
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int width() {
+        return this.width;
+    }
+
+    @Override
+    public int height() {
+        return this.height;
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+        this.compressors.shutdownNow();
+
+        // Renderers busy with a frame are disposed when they are given back
+        List<CameraRenderer> idle = new ArrayList<>();
+        synchronized (this.renderers) {
+            this.closed = true;
+            if (this.ownsRenderers) {
+                this.renderers.drainTo(idle);
+            }
+        }
+        for (CameraRenderer renderer : idle) {
+            renderer.dispose();
+        }
+    }
+
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The stage of a {@link FramePipeline} turning frame cameras into compressed frames.
+ * Frames may complete in any order: the pipeline puts them back in path order.
+ */
+public interface RenderStage extends Closeable {
+
+    /**
+     * Schedule the rendering and the compression of a frame.
+     *
+     * @param track the track of the frame cameras, which must not be modified afterwards
+     * @param index the index of the frame in the track
+     * @param output the buffer receiving the compressed frame
+     * @return the future compressed frame, completed with an {@link java.io.IOException} on failure
+     */
+    CompletableFuture<FrameData> submit(CameraTrack track, int index, FrameData output);
+
+    /**
+     * Describe how many frames are waiting in the stage.
+     *
+     * @return a human-readable summary of the stage occupancy
+     */
+    String occupancy();
+
+    int width();
+
+    int height();
+
+    @Override
+    void close();
+}
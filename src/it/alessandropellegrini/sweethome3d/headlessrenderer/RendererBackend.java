@@ -0,0 +1,47 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
+import com.eteks.sweethome3d.j3d.Object3DBranchFactory;
+import com.eteks.sweethome3d.j3d.PhotoRenderer;
+import com.eteks.sweethome3d.j3d.YafarayRenderer;
+import com.eteks.sweethome3d.model.Home;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The photo renderers frames can be rendered with.
+ * All of them implement {@link AbstractPhotoRenderer}, so that {@link CameraRenderer} does not depend
+ * on a specific one.
+ */
+public enum RendererBackend {
+    /** YafaRay, through its native library: the slowest and most realistic. */
+    YAFARAY,
+    /** SunFlow, bundled with Sweet Home 3D: at low quality, fast enough for drafts. */
+    SUNFLOW;
+
+    /**
+     * Create a renderer of a home.
+     *
+     * @param home the home to render
+     * @param quality the quality of the rendered frames
+     * @return a new renderer
+     * @throws IOException if the renderer cannot be created
+     */
+    public AbstractPhotoRenderer create(Home home, AbstractPhotoRenderer.Quality quality) throws IOException {
+        return this == YAFARAY
+                ? new YafarayRenderer(home, new Object3DBranchFactory(), quality)
+                : new PhotoRenderer(home, new Object3DBranchFactory(), quality);
+    }
+
+    /**
+     * Describe the frames rendered by this backend at a given quality, e.g. {@code yafaray-HIGH}.
+     */
+    public String describe(AbstractPhotoRenderer.Quality quality) {
+        return this.name().toLowerCase(Locale.ROOT) + "-" + quality;
+    }
+}
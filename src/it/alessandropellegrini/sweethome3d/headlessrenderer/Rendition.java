@@ -0,0 +1,133 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A smaller video made of the frames of the main one, downscaled instead of rendered again.
+ * Every rendered frame is downscaled with an area filter, from the render itself or, when it was
+ * rendered smaller than the rendition, from its upscaled copy. It is then compressed into the
+ * {@link FrameData#rendition(int)} buffers of its data, next to the frame itself; the pipeline then
+ * persists them in the {@link FrameStore} of each rendition. Once the main video is complete, every
+ * rendition is muxed from its store, see {@link #storedFrames()}.
+ */
+public class Rendition {
+    private final File output;
+    private final int width;
+    private final int height;
+    private final FrameStore store;
+    private final ThreadLocal<BufferedImage> buffers;
+
+    /**
+     * Create a rendition.
+     *
+     * @param output the video file to create
+     * @param width the width of the video, not larger than the rendered frames
+     * @param height the height of the video, not larger than the rendered frames
+     * @param store the store where the downscaled frames are persisted
+     */
+    public Rendition(File output, final int width, final int height, FrameStore store) {
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.store = store;
+        this.buffers = ThreadLocal.withInitial(() -> new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    }
+
+    /**
+     * Downscale a rendered frame and compress it.
+     *
+     * @param frame the frame to downscale, at least as large as the rendition
+     * @param compressor the compressor of the frames
+     * @param output the buffer receiving the JPEG data, which is reset
+     * @throws IOException if the frame cannot be compressed
+     */
+    public void compress(BufferedImage frame, JpegCompressor compressor, FrameData output) throws IOException {
+        BufferedImage scaled = this.buffers.get();
+        FrameScaler.downscale(frame, scaled);
+        output.reset();
+        compressor.compress(scaled, output);
+    }
+
+    /**
+     * Persist the downscaled copies of a frame in the stores of their renditions.
+     *
+     * @param renditions the renditions of the video, in the order of the buffers of the frame
+     * @param index the index of the frame
+     * @param data the frame, holding its downscaled copies
+     * @throws IOException if a copy cannot be persisted
+     */
+    public static void save(List<Rendition> renditions, int index, FrameData data) throws IOException {
+        for (int i = 0; i < renditions.size(); i++) {
+            renditions.get(i).store.save(index, data.rendition(i));
+        }
+    }
+
+    /**
+     * Tell whether all the renditions hold a frame, so that it does not need to be rendered again.
+     */
+    public static boolean contain(List<Rendition> renditions, int index) {
+        for (Rendition rendition : renditions) {
+            if (!rendition.store.contains(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a stage for a pipeline muxing the rendition from its store, which renders nothing:
+     * all the frames are expected to be stored already.
+     */
+    public RenderStage storedFrames() {
+        return new RenderStage() {
+            @Override
+            public CompletableFuture<FrameData> submit(CameraTrack track, int index, FrameData output) {
+                return CompletableFuture.failedFuture(new IOException("A frame of " + Rendition.this.output
+                        + " is missing from its store"));
+            }
+
+            @Override
+            public String occupancy() {
+                return "stored " + Rendition.this.width + "x" + Rendition.this.height;
+            }
+
+            @Override
+            public int width() {
+                return Rendition.this.width;
+            }
+
+            @Override
+            public int height() {
+                return Rendition.this.height;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    public File getOutput() {
+        return this.output;
+    }
+
+    public FrameStore getStore() {
+        return this.store;
+    }
+
+    public int width() {
+        return this.width;
+    }
+
+    public int height() {
+        return this.height;
+    }
+}
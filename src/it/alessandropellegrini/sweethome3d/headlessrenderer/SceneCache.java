@@ -0,0 +1,194 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.io.HomeFileRecorder;
+import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.RecorderException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The homes and photo renderers loaded by a process rendering several jobs, kept for the next jobs.
+ * Reading a home and exporting it to a photo renderer take longer than rendering a short clip: jobs
+ * rendering the same file share the same {@link Home}, and lease the renderers idle since previous jobs
+ * instead of creating new ones.
+ * A file is read again once it is modified. When more files than the capacity of the cache are loaded,
+ * the least recently used one is dropped, along with its idle renderers.
+ */
+public class SceneCache {
+    private final int capacity;
+    private final LinkedHashMap<String, Scene> scenes = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Create an empty cache.
+     *
+     * @param capacity the maximum number of homes kept loaded
+     */
+    public SceneCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The cache must hold at least one home");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Return a home, reading it only if it is not loaded or its file changed since.
+     *
+     * @param input the SH3D file of the home
+     * @return the home, shared with the other jobs rendering the file
+     * @throws RecorderException if the file cannot be read
+     * @throws IOException if the file cannot be found
+     */
+    public Home home(File input) throws RecorderException, IOException {
+        return this.scene(input).home;
+    }
+
+    /**
+     * Lease photo renderers of a home, creating the ones missing.
+     *
+     * @param home the home, as returned by {@link #home(File)}
+     * @param backend the photo renderer to render frames with
+     * @param quality the quality of the rendered frames
+     * @param count the number of renderers to lease
+     * @return renderers used by no other job, to give back with {@link #release}
+     * @throws IOException if a renderer cannot be created
+     */
+    public List<AbstractPhotoRenderer> lease(Home home, RendererBackend backend, AbstractPhotoRenderer.Quality quality,
+                                             int count) throws IOException {
+        List<AbstractPhotoRenderer> leased = new ArrayList<>(count);
+        synchronized (this) {
+            Scene scene = this.sceneOf(home);
+            Deque<AbstractPhotoRenderer> idle = scene != null ? scene.idle.get(backend.describe(quality)) : null;
+            while (idle != null && !idle.isEmpty() && leased.size() < count) {
+                leased.add(idle.pop());
+            }
+        }
+        try {
+            while (leased.size() < count) {
+                leased.add(backend.create(home, quality));
+            }
+        } catch (IOException e) {
+            this.release(home, backend, quality, leased);
+            throw e;
+        }
+        return leased;
+    }
+
+    /**
+     * Give back renderers once a job is done with them.
+     * Renderers of a home dropped from the cache, or read again since, are disposed of.
+     *
+     * @param home the home of the renderers
+     * @param backend the photo renderer of the renderers
+     * @param quality the quality of the renderers
+     * @param renderers the renderers to give back
+     */
+    public void release(Home home, RendererBackend backend, AbstractPhotoRenderer.Quality quality,
+                        List<AbstractPhotoRenderer> renderers) {
+        synchronized (this) {
+            Scene scene = this.sceneOf(home);
+            if (scene != null) {
+                scene.idle.computeIfAbsent(backend.describe(quality), description -> new ArrayDeque<>())
+                        .addAll(renderers);
+                return;
+            }
+        }
+        for (AbstractPhotoRenderer renderer : renderers) {
+            renderer.dispose();
+        }
+    }
+
+    /**
+     * Describe how many homes and idle renderers are loaded.
+     */
+    public synchronized String occupancy() {
+        int idle = 0;
+        for (Scene scene : this.scenes.values()) {
+            for (Deque<AbstractPhotoRenderer> renderers : scene.idle.values()) {
+                idle += renderers.size();
+            }
+        }
+        return this.scenes.size() + " homes, " + idle + " idle renderers";
+    }
+
+    private Scene scene(File input) throws RecorderException, IOException {
+        if (!input.isFile()) {
+            throw new IOException("Cannot find " + input);
+        }
+        String key = key(input);
+        synchronized (this) {
+            Scene scene = this.scenes.get(key);
+            if (scene != null && scene.isCurrent(input)) {
+                return scene;
+            }
+        }
+
+        // Read outside of the lock, so that other jobs are not held up
+        long lastModified = input.lastModified();
+        long length = input.length();
+        Scene scene = new Scene((new HomeFileRecorder()).readHome(String.valueOf(input)), lastModified, length);
+        List<Scene> dropped = new ArrayList<>();
+        synchronized (this) {
+            Scene previous = this.scenes.put(key, scene);
+            if (previous != null) {
+                dropped.add(previous);
+            }
+            Iterator<Scene> eldest = this.scenes.values().iterator();
+            while (this.scenes.size() > this.capacity) {
+                dropped.add(eldest.next());
+                eldest.remove();
+            }
+        }
+        for (Scene stale : dropped) {
+            for (Deque<AbstractPhotoRenderer> renderers : stale.idle.values()) {
+                for (AbstractPhotoRenderer renderer : renderers) {
+                    renderer.dispose();
+                }
+            }
+        }
+        return scene;
+    }
+
+    private Scene sceneOf(Home home) {
+        for (Scene scene : this.scenes.values()) {
+            if (scene.home == home) {
+                return scene;
+            }
+        }
+        return null;
+    }
+
+    private static String key(File input) {
+        return input.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private static class Scene {
+        final Home home;
+        final long lastModified;
+        final long length;
+        final Map<String, Deque<AbstractPhotoRenderer>> idle = new HashMap<>();
+
+        Scene(Home home, long lastModified, long length) {
+            this.home = home;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isCurrent(File input) {
+            return input.lastModified() == this.lastModified && input.length() == this.length;
+        }
+    }
+}
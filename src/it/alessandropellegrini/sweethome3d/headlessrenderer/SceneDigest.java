@@ -0,0 +1,118 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A digest of the scene stored in a SH3D file, insensitive to the cameras.
+ * Editing the video camera path, or moving the virtual visitor, does not change the digest,
+ * while any change to the furniture, walls, rooms, lights, textures or models does.
+ * The digest is computed from the {@code Home.xml} entry of the file, stripped of its cameras,
+ * and from all the content entries. Files saved by versions of Sweet Home 3D older than 5.3 have
+ * no {@code Home.xml} entry: their digest falls back to the whole file.
+ */
+public final class SceneDigest {
+    private static final String HOME_ENTRY = "Home";
+    private static final String HOME_XML_ENTRY = "Home.xml";
+
+    private SceneDigest() {
+    }
+
+    /**
+     * Compute the digest of the scene stored in a SH3D file.
+     *
+     * @param input the SH3D file
+     * @return a hexadecimal digest of the scene
+     * @throws IOException if the file cannot be read
+     */
+    public static String of(File input) throws IOException {
+        MessageDigest digest = FrameStore.sha256();
+
+        try (ZipFile zip = new ZipFile(input)) {
+            List<String> names = new ArrayList<>();
+            zip.stream().filter(entry -> !entry.isDirectory()).forEach(entry -> names.add(entry.getName()));
+            Collections.sort(names);
+
+            boolean hasXml = names.contains(HOME_XML_ENTRY);
+            for (String name : names) {
+                ZipEntry entry = zip.getEntry(name);
+                if (hasXml && HOME_ENTRY.equals(name)) {
+                    continue; // Same contents as Home.xml, cameras included
+                }
+
+                digest.update(name.getBytes(StandardCharsets.UTF_8));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    if (HOME_XML_ENTRY.equals(name)) {
+                        digest.update(withoutCameras(in));
+                    } else {
+                        FrameStore.update(digest, in);
+                    }
+                }
+            }
+        }
+
+        return FrameStore.toHex(digest.digest());
+    }
+
+    /**
+     * Return a canonical form of a {@code Home.xml} document without its cameras and video settings.
+     */
+    private static byte[] withoutCameras(InputStream in) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            Document document = factory.newDocumentBuilder().parse(in);
+
+            for (String tag : new String[]{"camera", "observerCamera"}) {
+                NodeList cameras = document.getElementsByTagName(tag);
+                for (int i = cameras.getLength() - 1; i >= 0; i--) {
+                    cameras.item(i).getParentNode().removeChild(cameras.item(i));
+                }
+            }
+            document.getDocumentElement().removeAttribute("camera");
+
+            NodeList environments = document.getElementsByTagName("environment");
+            for (int i = 0; i < environments.getLength(); i++) {
+                Element environment = (Element) environments.item(i);
+                for (String attribute : new String[]{"videoWidth", "videoAspectRatio", "videoQuality",
+                        "videoSpeed", "videoFrameRate"}) {
+                    environment.removeAttribute(attribute);
+                }
+            }
+
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transformer.transform(new DOMSource(document), new StreamResult(out));
+            return out.toByteArray();
+        } catch (ParserConfigurationException | SAXException | TransformerException e) {
+            throw new IOException("Failed to parse " + HOME_XML_ENTRY, e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the frames of a {@link FramePipeline} to a video file.
+ */
+public interface VideoEncoder {
+
+    /**
+     * Encode all the frames of the pipeline, returning once the video file is complete.
+     *
+     * @throws IOException if an error occurs while encoding the video
+     */
+    void start() throws IOException;
+
+    /**
+     * The available implementations of the QuickTime muxer.
+     */
+    enum Muxer {
+        /** Writes the QuickTime atoms directly, see {@link NativeQuickTimeEncoder}. */
+        NATIVE,
+        /** Goes through the JMF processor, see {@link QuickTimeEncoder}. */
+        JMF;
+
+        public VideoEncoder create(File output, FramePipeline pipeline) {
+            return this == NATIVE
+                    ? new NativeQuickTimeEncoder(output, pipeline)
+                    : new QuickTimeEncoder(output, pipeline);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import com.eteks.sweethome3d.io.HomeFileRecorder;
+import com.eteks.sweethome3d.j3d.AbstractPhotoRenderer;
+import com.eteks.sweethome3d.model.Home;
+import com.eteks.sweethome3d.model.RecorderException;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * A render worker, spawned by a {@link WorkerPool}.
+ * The worker connects back to its coordinator, then renders and compresses the frames it is sent
+ * one at a time, until the coordinator closes the connection.
+ * Every request holds the index of a frame and its camera state, see {@link CameraTrack#write};
+ * every response holds the index of the frame and the length of its JPEG data followed by the time
+ * taken to render and compress it and the data, or a negative length followed by an error message
+ * if the frame could not be rendered.
+ */
+@Command(name = "worker", hidden = true,
+        description = "Render frames on behalf of a coordinating process")
+public class WorkerCommand implements Callable<Integer> {
+
+    @Option(names = { "--port" }, required = true, description = "Local port of the coordinator")
+    int port;
+
+    @Option(names = { "-i", "--input" }, required = true, description = "SH3D File")
+    File input;
+
+    @Option(names = { "-w", "--width" }, required = true, description = "Redering width")
+    int width;
+
+    @Option(names = { "-h", "--height" }, required = true, description = "Redering height")
+    int height;
+
+    @Option(names = { "--render-scale" }, description = "Fraction of the width and height rendered, upscaled before compression")
+    double renderScale = 1;
+
+    @Option(names = { "--renderer" }, description = "Photo renderer, either yafaray or sunflow")
+    RendererBackend renderer = RendererBackend.YAFARAY;
+
+    @Option(names = { "--quality" }, description = "Render quality, either low or high")
+    AbstractPhotoRenderer.Quality quality = AbstractPhotoRenderer.Quality.HIGH;
+
+    @Option(names = { "--frame-cache" }, description = "Directory of the cache of rendered frames, shared across renders")
+    File frameCache = null;
+
+    @Option(names = { "--frame-cache-size" }, description = "Maximum size of the frame cache in MB")
+    long frameCacheSize = 4096;
+
+    @Option(names = { "--jpeg-quality" }, description = "JPEG quality of the frames, from 1 to 100")
+    int jpegQuality = JpegCompressor.DEFAULT_QUALITY;
+
+    @Option(names = { "--jpeg-subsampling" }, description = "JPEG chroma subsampling, either 420 or 444")
+    int jpegSubsampling = JpegCompressor.SUBSAMPLING_420;
+
+    @Option(names = { "--optimize-huffman" }, description = "Compute optimal JPEG Huffman tables for each frame")
+    boolean optimizeHuffman = false;
+
+    @Override
+    public Integer call() {
+        try {
+            Home home = (new HomeFileRecorder()).readHome(String.valueOf(this.input));
+            FrameCache cache = null;
+            if (this.frameCache != null) {
+                cache = new FrameCache(this.frameCache, this.frameCacheSize * 1024 * 1024, SceneDigest.of(this.input));
+            }
+            CameraRenderer frameRenderer = new CameraRenderer(home, FrameScaler.scale(this.width, this.renderScale),
+                    FrameScaler.scale(this.height, this.renderScale), this.renderer, this.quality, cache);
+            JpegCompressor compressor = new JpegCompressor(this.jpegQuality, this.jpegSubsampling, this.optimizeHuffman);
+            serve(frameRenderer, compressor);
+        } catch (RecorderException | IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+
+    private void serve(CameraRenderer renderer, JpegCompressor compressor) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            CameraTrack track = new CameraTrack(1);
+            BufferedImage buffer = new BufferedImage(renderer.width(), renderer.height(), BufferedImage.TYPE_INT_RGB);
+            BufferedImage upscaled = renderer.width() != this.width || renderer.height() != this.height
+                    ? new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB)
+                    : null;
+            FrameData data = new FrameData();
+
+            while (true) {
+                int index;
+                try {
+                    index = in.readInt();
+                } catch (EOFException e) {
+                    return; // The coordinator is done
+                }
+                track.read(0, in);
+
+                out.writeInt(index);
+                try {
+                    long start = System.nanoTime();
+                    BufferedImage frame = renderer.renderFrameAt(track, 0, buffer);
+                    long rendered = System.nanoTime();
+                    if (upscaled != null) {
+                        FrameScaler.upscale(frame, upscaled);
+                        frame = upscaled;
+                    }
+                    data.reset();
+                    compressor.compress(frame, data);
+                    out.writeInt(data.length());
+                    out.writeLong(rendered - start);
+                    out.writeLong(System.nanoTime() - rendered);
+                    data.writeTo(out);
+                } catch (IOException e) {
+                    out.writeInt(-1);
+                    out.writeUTF("Frame " + index + ": " + e.getMessage());
+                }
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Build the arguments of the workers rendering a video with the given settings.
+     */
+    static List<String> arguments(File input, int width, int height, double renderScale, RendererBackend renderer,
+                                  AbstractPhotoRenderer.Quality quality, File frameCache, long frameCacheSize,
+                                  int jpegQuality, int jpegSubsampling, boolean optimizeHuffman) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("--input=" + input.getAbsolutePath());
+        arguments.add("--width=" + width);
+        arguments.add("--height=" + height);
+        arguments.add("--render-scale=" + renderScale);
+        arguments.add("--renderer=" + renderer);
+        arguments.add("--quality=" + quality);
+        if (frameCache != null) {
+            arguments.add("--frame-cache=" + frameCache.getAbsolutePath());
+            arguments.add("--frame-cache-size=" + frameCacheSize);
+        }
+        arguments.add("--jpeg-quality=" + jpegQuality);
+        arguments.add("--jpeg-subsampling=" + jpegSubsampling);
+        if (optimizeHuffman) {
+            arguments.add("--optimize-huffman");
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * SPDX-FileCopyrightText: 2023 Alessandro Pellegrini <alessandro.pellegrini87@gmail.com>
+ * SPDX-License-Identifier: GPL-3.0-only
+ */
+package it.alessandropellegrini.sweethome3d.headlessrenderer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A render stage distributing frames to worker processes.
+ * Each worker is a child JVM running the {@link WorkerCommand}: it loads the home once, then renders
+ * and compresses the frames it receives over a local socket and sends them back.
+ * Running the native renderers in separate processes isolates their crashes: a worker that dies is
+ * restarted, and the frame it was rendering is handed to the next available worker. A worker that
+ * does not answer within the frame timeout is deemed hung and treated the same way.
+ * A frame that makes workers crash {@value #MAX_ATTEMPTS} times fails the render.
+ */
+public class WorkerPool implements RenderStage {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int ACCEPT_TIMEOUT = 1000; // ms
+
+    private final LinkedBlockingDeque<Task> tasks = new LinkedBlockingDeque<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+    private final List<String> workerArguments;
+    private final int timeout;
+    private final int width;
+    private final int height;
+    private final AtomicInteger busy = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * Start the threads serving the workers. Worker processes are spawned when the first frame arrives.
+     *
+     * @param size the number of worker processes
+     * @param width the width of the rendered frames
+     * @param height the height of the rendered frames
+     * @param timeout the time a worker may take to render a frame in ms, or 0 to wait forever
+     * @param workerArguments the arguments of the {@link WorkerCommand}, except the port to connect to
+     */
+    public WorkerPool(final int size, final int width, final int height, final int timeout,
+                      List<String> workerArguments) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The pool needs at least one worker");
+        }
+
+        this.workerArguments = workerArguments;
+        this.timeout = timeout;
+        this.width = width;
+        this.height = height;
+        for (int i = 1; i <= size; i++) {
+            final int id = i;
+            Thread thread = new Thread(() -> this.serve(id), "worker-" + id);
+            thread.setDaemon(true);
+            thread.start();
+            this.threads.add(thread);
+        }
+    }
+
+    @Override
+    public CompletableFuture<FrameData> submit(CameraTrack track, int index, FrameData output) {
+        Task task = new Task(track, index, output);
+        this.tasks.add(task);
+        return task.result;
+    }
+
+    /**
+     * Serve a worker slot: send it frames one at a time, restarting its process whenever it dies.
+     * A frame taken when the pool closes fails rather than being left pending.
+     */
+    private void serve(int id) {
+        Worker worker = null;
+        Task task = null;
+        try {
+            while (!this.closed) {
+                task = this.tasks.take();
+                this.busy.incrementAndGet();
+                try {
+                    if (worker == null) {
+                        worker = new Worker(id);
+                    }
+                    worker.render(task);
+                    task = null;
+                } catch (IOException e) {
+                    if (worker != null) {
+                        worker.destroy();
+                        worker = null;
+                    }
+                    if (this.closed) {
+                        break;
+                    }
+
+                    ++task.attempts;
+                    System.err.println("Worker " + id + " failed on a frame (attempt " + task.attempts + "/"
+                            + MAX_ATTEMPTS + "): " + e.getMessage());
+                    if (task.attempts >= MAX_ATTEMPTS) {
+                        task.result.completeExceptionally(e);
+                    } else {
+                        this.tasks.addFirst(task);
+                    }
+                    task = null;
+                } finally {
+                    this.busy.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closing
+        } finally {
+            if (worker != null) {
+                worker.destroy();
+            }
+            if (task != null) {
+                task.result.completeExceptionally(new InterruptedIOException("Frame rendering interrupted"));
+            }
+        }
+    }
+
+    @Override
+    public String occupancy() {
+        return "workers " + this.busy.get() + "/" + this.threads.size() + ", queued " + this.tasks.size();
+    }
+
+    @Override
+    public int width() {
+        return this.width;
+    }
+
+    @Override
+    public int height() {
+        return this.height;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        for (Thread thread : this.threads) {
+            thread.interrupt();
+        }
+        // Threads waiting for a frame are not woken up by the interrupt
+        for (Worker worker : this.workers) {
+            worker.disconnect();
+        }
+        try {
+            for (Thread thread : this.threads) {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Task task = this.tasks.poll(); task != null; task = this.tasks.poll()) {
+            task.result.completeExceptionally(new InterruptedIOException("Frame rendering interrupted"));
+        }
+    }
+
+    private static class Task {
+        private final CameraTrack track;
+        private final int index;
+        private final FrameData output;
+        private final CompletableFuture<FrameData> result = new CompletableFuture<>();
+        private int attempts = 0;
+
+        private Task(CameraTrack track, int index, FrameData output) {
+            this.track = track;
+            this.index = index;
+            this.output = output;
+        }
+    }
+
+    /**
+     * A worker process and its connection.
+     */
+    private class Worker {
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Worker(int id) throws IOException, InterruptedException {
+            try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                server.setSoTimeout(ACCEPT_TIMEOUT);
+                this.process = spawn(server.getLocalPort());
+
+                // The worker connects once its home is loaded
+                Socket accepted = null;
+                while (accepted == null) {
+                    try {
+                        accepted = server.accept();
+                    } catch (SocketTimeoutException e) {
+                        if (!this.process.isAlive()) {
+                            throw new IOException("Worker " + id + " exited with code " + this.process.exitValue());
+                        }
+                        if (closed) {
+                            this.process.destroyForcibly();
+                            throw new InterruptedException();
+                        }
+                    }
+                }
+                this.socket = accepted;
+            }
+            this.socket.setSoTimeout(timeout);
+            workers.add(this);
+            if (closed) {
+                // Connected after the pool disconnected the workers
+                this.destroy();
+                throw new InterruptedException();
+            }
+
+            this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+        }
+
+        /**
+         * Send a frame to the worker and wait for it to be rendered.
+         * An {@link IOException} means that the worker is gone; a frame that the worker failed to
+         * render completes the task exceptionally instead.
+         */
+        private void render(Task task) throws IOException {
+            this.out.writeInt(task.index);
+            task.track.write(task.index, this.out);
+            this.out.flush();
+
+            int index;
+            try {
+                index = this.in.readInt();
+            } catch (EOFException e) {
+                throw new IOException("Worker exited while rendering frame " + task.index);
+            } catch (SocketTimeoutException e) {
+                throw new IOException("Worker took more than " + timeout + " ms to render frame " + task.index);
+            }
+            if (index != task.index) {
+                throw new IOException("Worker answered for another frame");
+            }
+            int length = this.in.readInt();
+            if (length < 0) {
+                task.result.completeExceptionally(new IOException(this.in.readUTF()));
+                return;
+            }
+
+            long renderNanos = this.in.readLong();
+            long encodeNanos = this.in.readLong();
+            task.output.readFully(this.in, length);
+            task.output.setTimings(renderNanos, encodeNanos);
+            task.result.complete(task.output);
+        }
+
+        private void disconnect() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // Going away anyway
+            }
+        }
+
+        private void destroy() {
+            workers.remove(this);
+            this.disconnect();
+            this.process.destroyForcibly();
+            try {
+                this.process.waitFor(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Spawn a worker JVM with the same classpath and JVM options as this one.
+     */
+    private Process spawn(int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!argument.startsWith("-agentlib:jdwp")) {
+                command.add(argument);
+            }
+        }
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add(HeadlessRenderer.class.getName());
+        command.add("worker");
+        command.add("--port=" + port);
+        command.addAll(this.workerArguments);
+
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+}